@@ -85,72 +85,249 @@ public class ContextChildrenSpec {
         }
     }
     
+    /**
+     * State reached by the children of a context, as one of the states precomputed by the spec.
+     * States are immutable and shared : adding a child moves to another state, so that a context can be extended
+     * tentatively.
+     */
+    public static class State {
+        private final ContextChildrenSpec spec;
+        private final int number;
+
+        private State(ContextChildrenSpec spec, int number) {
+            this.spec = spec;
+            this.number = number;
+        }
+
+        /**
+         * @param type The type of the new child.
+         * @return The state after adding a child of the given type.
+         */
+        public State withChild(ContextType type) {
+            int typeIndex = spec.getChildTypeIndex(type);
+            int column = typeIndex >= 0 ? typeIndex : spec.childTypes.size();
+            int closedSequence = spec.closedIncompleteSequences[number][column];
+            if(closedSequence >= 0) {
+                // The child closes an incomplete sequence : it's a structure error !
+                LOG.error("Sequence {} is closed while incomplete after meeting forbidden element {}",
+                        spec.allowedChildren[closedSequence], type
+                );
+            }
+            return spec.states[spec.transitions[number][column]];
+        }
+
+        public List<ContextType> getAllowedTypesForNextChild() {
+            return spec.allowedTypeLists.get(number);
+        }
+
+        /**
+         * @param type A context type.
+         * @return True if a child of this type may be added in this state.
+         */
+        public boolean allowsNextChild(ContextType type) {
+            int typeIndex = spec.getChildTypeIndex(type);
+            return typeIndex >= 0 && spec.allowedTypeSets[number].get(typeIndex);
+        }
+
+        public boolean isIncomplete() {
+            return spec.incompleteStates.get(number);
+        }
+
+        @Override
+        public String toString() {
+            return "State " + number;
+        }
+    }
+
     private final ContextSequence[] allowedChildren;
 
+    /**
+     * All distinct types allowed as children, numbered by their order of appearance in the sequences.
+     */
+    private final List<ContextType> childTypes;
+    private final Map<ContextType, Integer> childTypeIndices = new HashMap<>();
+
+    /**
+     * First state of each sequence. The states of a sequence count the children matched against it, up to the
+     * point where more children do not change its status. The last state is reached once all sequences are closed.
+     */
+    private final int[] firstStates;
+    private final State[] states;
+    /**
+     * Next state by current state and type of the new child. The last column is for types which are not allowed.
+     */
+    private final int[][] transitions;
+    /**
+     * Sequence closed while incomplete by each transition, or -1 if the transition is valid.
+     */
+    private final int[][] closedIncompleteSequences;
+    private final List<List<ContextType>> allowedTypeLists;
+    private final BitSet[] allowedTypeSets;
+    private final BitSet incompleteStates = new BitSet();
+
+    /**
+     * Computed on first use, since the children types are not all initialised when the spec is built.
+     */
+    private volatile Set<ContextType> descendants;
+
     public ContextChildrenSpec(ContextSequence[] allowedChildren) {
         this.allowedChildren = allowedChildren;
-    }
 
-    public List<ContextType> getAllowedTypesForNextChild(List<ContextType> currentChildrenTypes) {
-        List<ContextType> allowedTypes = new ArrayList<>();
+        Set<ContextType> types = new LinkedHashSet<>();
+        for(ContextSequence seq: allowedChildren) {
+            types.addAll(seq.allowedTypes);
+        }
+        this.childTypes = List.copyOf(types);
+        for(int i = 0; i < childTypes.size(); i++) {
+            childTypeIndices.put(childTypes.get(i), i);
+        }
 
-        // Add all children to a queue.
-        ArrayDeque<ContextType> childrenQueue = new ArrayDeque<>(currentChildrenTypes);
-
-        for(ContextSequence childrenSequence: allowedChildren) {
-            // Iterate through all allowed children sequences.
-
-            // Consume as many children as this sequence accepts.
-            switch(childrenSequence.consume(childrenQueue)) {
-                case INCOMPLETE:
-                    // This sequence is incomplete. Next child can either extend a previous sequence, or fill this one, but nothing further.
-                    // Return immediately.
-                    allowedTypes.addAll(childrenSequence.allowedTypes);
-                    return allowedTypes;
-                case OPEN:
-                    // This sequence is open : this sequence's types are accepted, but a next sequence might be allowed as well.
-                    // Keep iterating.
-                    allowedTypes.addAll(childrenSequence.allowedTypes);
-                    break;
-                case CLOSED:
-                    // This sequence is closed : it does not contribute to the allowed types.
-                    // Keep iterating.
-                    break;
+        this.firstStates = new int[allowedChildren.length + 1];
+        for(int i = 0; i < allowedChildren.length; i++) {
+            firstStates[i + 1] = firstStates[i] + getMaxCountedOccurrences(i) + 1;
+        }
+        int nbStates = firstStates[allowedChildren.length] + 1;
+
+        this.states = new State[nbStates];
+        this.transitions = new int[nbStates][childTypes.size() + 1];
+        this.closedIncompleteSequences = new int[nbStates][childTypes.size() + 1];
+        this.allowedTypeLists = new ArrayList<>(Collections.nCopies(nbStates, null));
+        this.allowedTypeSets = new BitSet[nbStates];
+        for(int sequenceIndex = 0; sequenceIndex <= allowedChildren.length; sequenceIndex++) {
+            int nbOccurrenceStates = sequenceIndex < allowedChildren.length ? getMaxCountedOccurrences(sequenceIndex) + 1 : 1;
+            for(int occurrences = 0; occurrences < nbOccurrenceStates; occurrences++) {
+                compileState(sequenceIndex, occurrences);
             }
         }
+    }
 
-        return allowedTypes;
+    /**
+     * @param sequenceIndex Index of a sequence.
+     * @return The number of occurrences after which the status of the sequence does not change anymore.
+     */
+    private int getMaxCountedOccurrences(int sequenceIndex) {
+        ContextSequence sequence = allowedChildren[sequenceIndex];
+        return sequence.maxOccurrences == Integer.MAX_VALUE ? sequence.minOccurrences : sequence.maxOccurrences;
     }
 
-    public boolean isIncomplete(List<ContextType> currentChildrenTypes) {
-        // Add all children to a queue.
-        ArrayDeque<ContextType> childrenQueue = new ArrayDeque<>(currentChildrenTypes);
-
-        for(ContextSequence childrenSequence: allowedChildren) {
-            // Iterate through all allowed children sequences.
-
-            // Consume as many children as this sequence accepts.
-            switch(childrenSequence.consume(childrenQueue)) {
-                case INCOMPLETE:
-                    // This sequence is incomplete, so the full context is incomplete.
-                    return true;
-                default:
-                    // Sequence can be considered complete, just move to the next.
+    private int getStateNumber(int sequenceIndex, int occurrences) {
+        return firstStates[sequenceIndex] + occurrences;
+    }
+
+    private ContextSequence.Status getStatus(int sequenceIndex, int consumed) {
+        ContextSequence sequence = allowedChildren[sequenceIndex];
+        if(consumed < sequence.minOccurrences) {
+            return ContextSequence.Status.INCOMPLETE;
+        }
+        if(consumed >= sequence.maxOccurrences) {
+            return ContextSequence.Status.CLOSED;
+        }
+        return ContextSequence.Status.OPEN;
+    }
+
+    private void compileState(int sequenceIndex, int occurrences) {
+        int number = getStateNumber(sequenceIndex, occurrences);
+        states[number] = new State(this, number);
+
+        // Transitions, for each allowed type and for all other types.
+        for(int column = 0; column <= childTypes.size(); column++) {
+            ContextType type = column < childTypes.size() ? childTypes.get(column) : null;
+            closedIncompleteSequences[number][column] = -1;
+
+            int index = sequenceIndex;
+            int consumed = occurrences;
+            while(index < allowedChildren.length) {
+                ContextSequence sequence = allowedChildren[index];
+                if(consumed < sequence.maxOccurrences && type != null && sequence.allowedTypes.contains(type)) {
                     break;
+                }
+                // The child does not fit in this sequence, we must close it.
+                if(consumed < sequence.minOccurrences && closedIncompleteSequences[number][column] < 0) {
+                    closedIncompleteSequences[number][column] = index;
+                }
+                index++;
+                consumed = 0;
+            }
+            transitions[number][column] = index < allowedChildren.length
+                    // The child fits in this sequence.
+                    ? getStateNumber(index, Math.min(consumed + 1, getMaxCountedOccurrences(index)))
+                    // The child does not fit in any sequence : no further child is allowed.
+                    : getStateNumber(allowedChildren.length, 0);
+        }
+
+        // Allowed types for the next child, and completeness.
+        List<ContextType> allowedTypes = new ArrayList<>();
+        BitSet allowedTypeSet = new BitSet(childTypes.size());
+        for(int i = sequenceIndex; i < allowedChildren.length; i++) {
+            ContextSequence.Status status = getStatus(i, i == sequenceIndex ? occurrences : 0);
+            if(status != ContextSequence.Status.CLOSED) {
+                // This sequence is incomplete or open : this sequence's types are accepted.
+                for(ContextType type: allowedChildren[i].allowedTypes) {
+                    allowedTypes.add(type);
+                    allowedTypeSet.set(childTypeIndices.get(type));
+                }
             }
+            if(status == ContextSequence.Status.INCOMPLETE) {
+                // This sequence is incomplete. Next child can either extend a previous sequence, or fill this one, but nothing further.
+                incompleteStates.set(number);
+                break;
+            }
+        }
+        allowedTypeLists.set(number, Collections.unmodifiableList(allowedTypes));
+        allowedTypeSets[number] = allowedTypeSet;
+    }
+
+    /**
+     *
+     * @return The state of a context with no children.
+     */
+    public State getInitialState() {
+        return states[0];
+    }
+
+    private State getState(List<ContextType> currentChildrenTypes) {
+        State state = getInitialState();
+        for(ContextType type: currentChildrenTypes) {
+            state = state.withChild(type);
         }
+        return state;
+    }
+
+    public List<ContextType> getAllowedTypesForNextChild(List<ContextType> currentChildrenTypes) {
+        return getState(currentChildrenTypes).getAllowedTypesForNextChild();
+    }
+
+    public boolean isIncomplete(List<ContextType> currentChildrenTypes) {
+        return getState(currentChildrenTypes).isIncomplete();
+    }
+
+    /**
+     *
+     * @return The number of distinct types allowed as children.
+     */
+    public int getNbChildTypes() {
+        return childTypes.size();
+    }
 
-        // All children sequences are complete.
-        return false;
+    /**
+     *
+     * @param type A context type.
+     * @return A number identifying this type among the types allowed as children, between 0 (included) and
+     * {@link #getNbChildTypes()} (excluded), or -1 if this type is not allowed as a child.
+     */
+    public int getChildTypeIndex(ContextType type) {
+        Integer index = childTypeIndices.get(type);
+        return index != null ? index : -1;
     }
 
     public Set<ContextType> getDescendants() {
-        Set<ContextType> descendants = new HashSet<>();
-        for(ContextSequence seq: allowedChildren) {
-            for(ContextType allowedType: seq.allowedTypes) {
-                descendants.add(allowedType);
-                descendants.addAll(allowedType.childrenSpec().getDescendants());
+        if(descendants == null) {
+            Set<ContextType> newDescendants = new HashSet<>();
+            for(ContextType allowedType: childTypes) {
+                newDescendants.add(allowedType);
+                newDescendants.addAll(allowedType.childrenSpec().getDescendants());
             }
+            descendants = Collections.unmodifiableSet(newDescendants);
         }
         return descendants;
     }
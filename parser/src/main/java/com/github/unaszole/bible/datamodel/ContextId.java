@@ -77,6 +77,7 @@ public class ContextId {
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ContextId contextId = (ContextId) o;
         return idType == contextId.idType && Objects.equals(idMap, contextId.idMap);
@@ -5,6 +5,10 @@ import java.util.Objects;
 public class ContextMetadata {
 	public final ContextType type;
 	public final ContextId id;
+	/**
+	 * Hash of the type and ID, computed on first use. Threads may compute it concurrently, always to the same value.
+	 */
+	private int hash;
 	
 	public ContextMetadata(ContextType type, ContextId id) {
         assert id == null ? type.idType() == IdType.NO_ID : id.idType == type.idType();
@@ -23,6 +27,7 @@ public class ContextMetadata {
 
 	@Override
 	public boolean equals(Object o) {
+		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		ContextMetadata that = (ContextMetadata) o;
 		return type == that.type && Objects.equals(id, that.id);
@@ -30,6 +35,9 @@ public class ContextMetadata {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(type, id);
+		if(hash == 0) {
+			hash = Objects.hash(type, id);
+		}
+		return hash;
 	}
 }
\ No newline at end of file
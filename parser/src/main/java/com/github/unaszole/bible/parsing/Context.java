@@ -1,23 +1,60 @@
 package com.github.unaszole.bible.parsing;
 
+import com.github.unaszole.bible.datamodel.ContextChildrenSpec;
 import com.github.unaszole.bible.datamodel.ContextMetadata;
 import com.github.unaszole.bible.datamodel.ContextType;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A context of a document, as seen by the parser. Contexts are immutable, so they may be shared between threads.
+ */
 public class Context {
 
-	private static long instanceCounter = 0;
+	private static final AtomicLong INSTANCE_COUNTER = new AtomicLong();
+
+	/**
+	 * Node of the list of children of a context, linked from the last child to the first one, so that contexts extended
+	 * from the same parent share their previous children.
+	 */
+	private static class ChildNode {
+		final Context child;
+		final ChildNode previous;
+
+		ChildNode(Context child, ChildNode previous) {
+			this.child = child;
+			this.previous = previous;
+		}
+	}
 
 	public final ContextMetadata metadata;
 	public final Object value;
-	private final List<Context> children;
+	private final ChildNode lastChild;
+	private final ContextChildrenSpec.State childrenState;
+	/**
+	 * Last child of each type allowed as a child, by {@link ContextChildrenSpec#getChildTypeIndex(ContextType)}.
+	 */
+	private final ContextMetadata[] lastChildOfType;
+	/**
+	 * If false, only the last child is kept : previous children are only known through the children state and
+	 * {@link #lastChildOfType}.
+	 */
+	private final boolean retainsChildren;
+	/**
+	 * Hash of the metadata and value, computed on first use. Threads may compute it concurrently, always to the same
+	 * value.
+	 */
+	private int contentHash;
 	public final long contextUniqueId;
 
-	private Context(ContextMetadata metadata, Object value, List<Context> children, long contextUniqueId) {
+	private Context(ContextMetadata metadata, Object value, ChildNode lastChild, ContextChildrenSpec.State childrenState,
+					ContextMetadata[] lastChildOfType, boolean retainsChildren, int contentHash, long contextUniqueId) {
 		this.metadata = metadata;
 		try {
 			this.value = metadata.type.valueType().valueOf(value);
@@ -25,46 +62,123 @@ public class Context {
 		catch (IllegalArgumentException e) {
 			throw new IllegalArgumentException("Invalid value " + value + " for context of type " + metadata.type + " : " + e.getMessage());
 		}
-		this.children = children;
+		this.lastChild = lastChild;
+		this.childrenState = childrenState;
+		this.lastChildOfType = lastChildOfType;
+		this.retainsChildren = retainsChildren;
+		this.contentHash = contentHash;
 		this.contextUniqueId = contextUniqueId;
 	}
 
 	public Context(ContextMetadata metadata, Object value) {
-		this(metadata, value, List.of(), instanceCounter++);
+		this(metadata, value, null, metadata.type.childrenSpec().getInitialState(),
+				new ContextMetadata[metadata.type.childrenSpec().getNbChildTypes()], true, 0, INSTANCE_COUNTER.getAndIncrement());
 	}
 
 	public Context(ContextMetadata metadata) {
 		this(metadata, null);
 	}
 	
+	/**
+	 * Get this context in streaming mode, where previous children are forgotten when a new child is added. Only what
+	 * is needed to go on parsing is kept about them : the position in the children spec and the last child of each
+	 * type. Children added to a context in streaming mode are switched to streaming mode as well, so that the memory
+	 * held by a stack of contexts depends on its depth, not on the number of contexts it went through.
+	 * @return A context with the same contents, in streaming mode.
+	 */
+	public Context streaming() {
+		if(!retainsChildren) {
+			return this;
+		}
+		return new Context(metadata, value, lastChild != null ? new ChildNode(lastChild.child, null) : null,
+				childrenState, lastChildOfType, false, contentHash, contextUniqueId);
+	}
+
 	Context addChild(Context child) {
-		List<Context> newChildren = new ArrayList<>(children);
-		newChildren.add(child);
-		return new Context(metadata, value, newChildren, contextUniqueId);
+		if(!retainsChildren) {
+			child = child.streaming();
+		}
+		ContextMetadata[] newLastChildOfType = lastChildOfType;
+		int typeIndex = metadata.type.childrenSpec().getChildTypeIndex(child.metadata.type);
+		if(typeIndex >= 0) {
+			newLastChildOfType = lastChildOfType.clone();
+			newLastChildOfType[typeIndex] = child.metadata;
+		}
+		return new Context(metadata, value, new ChildNode(child, retainsChildren ? lastChild : null),
+				childrenState.withChild(child.metadata.type), newLastChildOfType, retainsChildren, contentHash, contextUniqueId);
+	}
+
+	private List<Context> getChildren() {
+		LinkedList<Context> children = new LinkedList<>();
+		for(ChildNode node = lastChild; node != null; node = node.previous) {
+			children.addFirst(node.child);
+		}
+		return children;
 	}
 	
 	public Optional<Context> getLastChild() {
-		return children.isEmpty() ? Optional.empty() : Optional.of(children.get(children.size() - 1));
+		return lastChild == null ? Optional.empty() : Optional.of(lastChild.child);
 	}
 	
 	public List<ContextType> getAllowedTypesForNextChild() {
-		return metadata.type.childrenSpec().getAllowedTypesForNextChild(
-			children.stream().map(c -> c.metadata.type).collect(Collectors.toList())
-		);
+		return childrenState.getAllowedTypesForNextChild();
+	}
+
+	/**
+	 *
+	 * @return A hash of the metadata and value of this context.
+	 */
+	int getContentHash() {
+		if(contentHash == 0) {
+			contentHash = 31 * metadata.hashCode() + Objects.hashCode(value);
+		}
+		return contentHash;
+	}
+
+	/**
+	 *
+	 * @param other Another context.
+	 * @return True if the other context has the same metadata and value as this one, regardless of their children.
+	 */
+	boolean hasSameContents(Context other) {
+		return this == other || (getContentHash() == other.getContentHash() && metadata.equals(other.metadata)
+				&& Objects.equals(value, other.value));
+	}
+
+	ContextChildrenSpec.State getChildrenState() {
+		return childrenState;
+	}
+
+	public boolean allowsNextChild(ContextType type) {
+		return childrenState.allowsNextChild(type);
 	}
 
 	public ContextMetadata getLastChildOfTypeMeta(final ContextType type) {
-		return children.stream()
-				.map(c -> c.metadata)
-				.filter(m -> m.type == type)
-				.reduce((first, second) -> second)
-				.orElse(null);
+		int typeIndex = metadata.type.childrenSpec().getChildTypeIndex(type);
+		if(typeIndex >= 0) {
+			return lastChildOfType[typeIndex];
+		}
+		// Not an allowed child type : only found if added despite the spec.
+		for(ChildNode node = lastChild; node != null; node = node.previous) {
+			if(node.child.metadata.type == type) {
+				return node.child.metadata;
+			}
+		}
+		return null;
 	}
 	
+	/**
+	 *
+	 * @return A description of everything in this context that influences the parsing of its next children : its
+	 * metadata and value, its position in the children spec, and the last child of each type. Contexts with the
+	 * same description are parsed the same way from here on.
+	 */
+	public String describeParsingState() {
+		return metadata + "{" + value + "} " + childrenState + " " + Arrays.toString(lastChildOfType);
+	}
+
 	public boolean isIncomplete() {
-		return metadata.type.childrenSpec().isIncomplete(
-			children.stream().map(c -> c.metadata.type).collect(Collectors.toList())
-		);
+		return childrenState.isIncomplete();
 	}
 	
 	public Optional<List<Context>> getPathFromAncestor(Context ancestor) {
@@ -72,7 +186,7 @@ public class Context {
 			return Optional.of(List.of());
 		}
 		
-		for(Context closerAncestor: ancestor.children) {
+		for(Context closerAncestor: ancestor.getChildren()) {
 			Optional<List<Context>> pathFromCloserAncestor = this.getPathFromAncestor(closerAncestor);
 			
 			if(pathFromCloserAncestor.isPresent()) {
@@ -89,6 +203,7 @@ public class Context {
 	
 	@Override
 	public String toString() {
+		List<Context> children = getChildren();
 		return metadata +
 			(value != null ? "{" + value + "}" : "") +
 			(!children.isEmpty() ? "(" + children + ")" : "");
@@ -8,23 +8,115 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
 /**
  * A parser processes a source document, broken down into a sequence of "positions".
  * The parser cannot "guess" what the document is about : an initial context stack (containing at least one root
  * context) must always be provided along with the document data, to describes what the data contains (A full bible ? A book ? A chapter ?).
+ * <p>
+ * A parser must only be used by one thread at a time, and must have its own core, since cores may keep state between
+ * calls. Several parsers, each with its own core, may run in parallel.
  * @param <Position> The type of "position" processed by this parser.
 */
 public class Parser<Position> implements Iterator<List<ContextEvent>> {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(Parser.class);
 
+	private static final LongAdder NB_CONTEXT_READS = new LongAdder();
+	private static final LongAdder NB_KNOWN_MISSES = new LongAdder();
+
+	/**
+	 * A request to the parser core to read a context from the current position.
+	 * Two reads with the same type, previous sibling, ancestors and state of the parent's children are expected to
+	 * give the same result, as long as the core did not return a context in between.
+	 */
+	private static class ContextRead {
+		private final ContextType type;
+		private final ContextMetadata previousOfType;
+		private final ContextChildrenSpec.State parentChildrenState;
+		/**
+		 * The ancestors, compared by metadata and value.
+		 */
+		private final PersistentStack<Context> ancestorStack;
+		private final int hashCode;
+
+		ContextRead(ContextType type, ContextMetadata previousOfType, PersistentStack<Context> ancestorStack) {
+			this.type = type;
+			this.previousOfType = previousOfType;
+			this.parentChildrenState = ancestorStack.get(0).getChildrenState();
+			this.ancestorStack = ancestorStack;
+
+			int hash = Objects.hash(type, previousOfType, parentChildrenState);
+			for(Context ancestor: ancestorStack) {
+				hash = 31 * hash + ancestor.getContentHash();
+			}
+			this.hashCode = hash;
+		}
+
+		private boolean hasSameAncestors(ContextRead that) {
+			if(ancestorStack.size() != that.ancestorStack.size()) {
+				return false;
+			}
+			// Compare until both stacks share the same bottom part.
+			PersistentStack<Context> these = ancestorStack;
+			PersistentStack<Context> those = that.ancestorStack;
+			while(these != those) {
+				if(!these.get(0).hasSameContents(those.get(0))) {
+					return false;
+				}
+				these = these.pop();
+				those = those.pop();
+			}
+			return true;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			ContextRead that = (ContextRead) o;
+			return hashCode == that.hashCode && type == that.type && parentChildrenState == that.parentChildrenState
+					&& Objects.equals(previousOfType, that.previousOfType) && hasSameAncestors(that);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of context reads requested by all parsers, and how many of them were skipped because they
+	 * were already known to find nothing.
+	 */
+	public static Map<String, Long> getStatistics() {
+		return Map.of(
+				"Parser context reads", NB_CONTEXT_READS.sum(),
+				"Parser context reads skipped as known misses", NB_KNOWN_MISSES.sum()
+		);
+	}
+
 	private final ParserCore<Position> core;
 	private final Iterator<Position> positions;
 	private final Deque<Context> currentContextStack;
 	private Parser<?> currentExternalParser;
 	private boolean closed = false;
+	/**
+	 * Context reads which did not return a context since the current position was reached, or since the core last
+	 * returned a context.
+	 */
+	private final Set<ContextRead> knownMisses = new HashSet<>();
+	/**
+	 * Name under which this parser is reported as a page by the {@link ParserProfile}, if set.
+	 */
+	private String profiledPageName = null;
+	/**
+	 * Measurements of this parser, if it is reported as a page and the {@link ParserProfile} is enabled.
+	 */
+	private ParserProfile.Page profiledPage = null;
 
 	/**
 	 *
@@ -54,38 +146,35 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 		/**
 		 * Stack of contexts in a given state.
 		 */
-		public final List<Context> contextStack;
+		public final PersistentStack<Context> contextStack;
 		/**
-		 * Sequence of events from the base state (in principle the last committed state) to this state.
+		 * Sequence of events from the base state (in principle the last committed state) to this state, latest first.
 		 */
-		public final List<ContextEvent> events;
+		public final PersistentStack<ContextEvent> events;
 		/**
 		 * If true, no more context can (or should) be extracted from the current position, parser needs to advance.
 		 */
 		public final boolean positionExhausted;
 
-		private ContextState(List<Context> contextStack, List<ContextEvent> events, boolean positionExhausted) {
-			this.contextStack =	Collections.unmodifiableList(contextStack);
-			this.events = Collections.unmodifiableList(events);
+		private ContextState(PersistentStack<Context> contextStack, PersistentStack<ContextEvent> events, boolean positionExhausted) {
+			this.contextStack =	contextStack;
+			this.events = events;
 			this.positionExhausted = positionExhausted;
 		}
 
 		public ContextState openChildContext(Context context) {
-			assert contextStack.get(0).getAllowedTypesForNextChild().contains(context.metadata.type)
+			assert contextStack.get(0).allowsNextChild(context.metadata.type)
 					: "Context to open " + context + " must be one of " + contextStack.get(0).getAllowedTypesForNextChild();
 
 			// Head of stack is replaced by one where the new child is added.
 			Context parentCtx = contextStack.get(0).addChild(context);
-			LinkedList<Context> newStack = new LinkedList<>(contextStack);
-			newStack.removeFirst();
-			newStack.addFirst(parentCtx);
-
-			// New child is added as head of stack, and open event is appended.
-			newStack.addFirst(context);
-			List<ContextEvent> newEvents = new LinkedList<>(events);
-			newEvents.add(new ContextEvent(ContextEvent.Type.OPEN, context));
-
-			return new ContextState(newStack, newEvents, positionExhausted);
+			// New child (as added to its parent) is added as head of stack, and open event is appended.
+			Context childCtx = parentCtx.getLastChild().orElseThrow();
+			return new ContextState(
+					contextStack.pop().push(parentCtx).push(childCtx),
+					events.push(new ContextEvent(ContextEvent.Type.OPEN, childCtx)),
+					positionExhausted
+			);
 		}
 
 		public boolean canCloseCurrentContext() {
@@ -97,12 +186,11 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 			assert canCloseCurrentContext()	: "Context to close " + contextStack.get(0) + " must be complete";
 
 			// New state has the head context removed from stack, and a close event appended.
-			List<Context> newStack = new LinkedList<>(contextStack);
-			Context closed = newStack.remove(0);
-			List<ContextEvent> newEvents = new LinkedList<>(events);
-			newEvents.add(new ContextEvent(ContextEvent.Type.CLOSE, closed));
-
-			return new ContextState(newStack, newEvents, positionExhausted);
+			return new ContextState(
+					contextStack.pop(),
+					events.push(new ContextEvent(ContextEvent.Type.CLOSE, contextStack.get(0))),
+					positionExhausted
+			);
 		}
 
 		public ContextState notifyPositionExhausted() {
@@ -121,6 +209,35 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 				.map(nextId -> new ContextMetadata(implicitType, nextId));
     }
 
+	private ParserCore.PositionParseOutput readContext(PersistentStack<Context> ancestorStack, ContextType type,
+													   ContextMetadata previousOfType, Position position) {
+		NB_CONTEXT_READS.increment();
+		ContextRead read = new ContextRead(type, previousOfType, ancestorStack);
+		if(knownMisses.contains(read)) {
+			NB_KNOWN_MISSES.increment();
+			return new ParserCore.PositionParseOutput(null);
+		}
+
+		long start = ParserProfile.isEnabled() ? System.nanoTime() : 0;
+		ParserCore.PositionParseOutput out = core.readContext(ancestorStack, type, previousOfType, position);
+		if(ParserProfile.isEnabled()) {
+			ParserProfile.time("Context reads of type " + type.name(), start);
+			ParserProfile.Page page = ParserProfile.getCurrentPage();
+			if(page != null) {
+				page.contextReads++;
+				page.contextReadNanos += System.nanoTime() - start;
+			}
+		}
+		if(out.parsedContext == null) {
+			knownMisses.add(read);
+		}
+		else {
+			// The core may answer differently once it returned a context.
+			knownMisses.clear();
+		}
+		return out;
+	}
+
 	private ContextState parseDescendantContext(ContextState baseState, Position position) {
 		Context baseContext = baseState.contextStack.get(0);
 
@@ -128,8 +245,8 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 		for(ContextType eltType: baseContext.getAllowedTypesForNextChild()) {
 			ContextMetadata previousOfType = baseContext.getLastChildOfTypeMeta(eltType);
 
-			// Try to extract a real context of this type.
-			ParserCore.PositionParseOutput out = core.readContext(baseState.contextStack, eltType, previousOfType, position);
+			// Try to extract a real context of this type, unless the core already found nothing for the same read.
+			ParserCore.PositionParseOutput out = readContext(baseState.contextStack, eltType, previousOfType, position);
 
 			if(out.parsedContext != null) {
 				// Found a matching context : return a new state with it.
@@ -147,12 +264,26 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 
 				// Build an implicit context for this element.
 				Context newContext = new Context(implicitMeta.get(), eltType.implicitValue().implicitValue);
+				if(ParserProfile.isEnabled()) {
+					ParserProfile.count("Implicit contexts opened", 1);
+					ParserProfile.Page page = ParserProfile.getCurrentPage();
+					if(page != null) {
+						page.implicitContexts++;
+					}
+				}
 
 				// Call recursively until we get a real state.
 				ContextState reachedState = parseDescendantContext(baseState.openChildContext(newContext), position);
 				if(reachedState != null) {
 					return reachedState;
 				}
+				if(ParserProfile.isEnabled()) {
+					ParserProfile.count("Implicit contexts discarded", 1);
+					ParserProfile.Page page = ParserProfile.getCurrentPage();
+					if(page != null) {
+						page.discardedStates++;
+					}
+				}
 			}
 		}
 
@@ -160,19 +291,39 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 		return null;
 	}
 
-	private List<ContextEvent> parsePosition(Position position) {
+	/**
+	 * Parse one position against the current context stack, using the core.
+	 * @param position The position to parse.
+	 * @return The events produced by this position. The current context stack is updated accordingly.
+	 */
+	protected List<ContextEvent> parsePosition(Position position) {
+		knownMisses.clear();
+
 		// Initial state with current context stack and no event.
-		ContextState committedState = new ContextState(new LinkedList<>(currentContextStack), new LinkedList<>(), false);
+		ContextState committedState = new ContextState(PersistentStack.of(currentContextStack), PersistentStack.empty(), false);
 
 		// While new contexts can be opened from this position.
 		while(!committedState.positionExhausted) {
 			ContextState tentativeState = committedState;
 
 			ContextState nextState;
+			int nbTentativeCloses = 0;
 			while((nextState = parseDescendantContext(tentativeState, position)) == null
 					&& tentativeState.canCloseCurrentContext()) {
 				// No descendant context could be opened : try to move up to the parent.
 				tentativeState = tentativeState.closeCurrentContext();
+				nbTentativeCloses++;
+			}
+
+			if(ParserProfile.isEnabled()) {
+				ParserProfile.count("Tentative closes", nbTentativeCloses);
+				if(nextState == null) {
+					ParserProfile.count("Tentative closes discarded", nbTentativeCloses);
+					ParserProfile.Page page = ParserProfile.getCurrentPage();
+					if(page != null) {
+						page.discardedStates += nbTentativeCloses;
+					}
+				}
 			}
 
 			if(nextState != null) {
@@ -189,7 +340,7 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 		// Save the stack and return all events from the last committed state.
 		this.currentContextStack.clear();
 		this.currentContextStack.addAll(committedState.contextStack);
-		return committedState.events;
+		return committedState.events.toListFromBottom();
 	}
 
 	/**
@@ -220,6 +371,51 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 	 */
 	@Override
 	public final List<ContextEvent> next() {
+		if(!ParserProfile.isEnabled()) {
+			return parseNext();
+		}
+
+		if(profiledPage == null) {
+			String pageName = getProfiledPageName();
+			if(pageName == null) {
+				// Measured as part of the page being parsed.
+				return parseNext();
+			}
+			profiledPage = new ParserProfile.Page(pageName);
+		}
+
+		boolean wasClosed = closed;
+		ParserProfile.Page previousPage = ParserProfile.enterPage(profiledPage);
+		long start = System.nanoTime();
+		try {
+			return parseNext();
+		}
+		finally {
+			ParserProfile.exitPage(profiledPage, previousPage, System.nanoTime() - start);
+			if(closed && !wasClosed) {
+				ParserProfile.recordPage(profiledPage);
+			}
+		}
+	}
+
+	/**
+	 * Report this parser as a separate page in the {@link ParserProfile}.
+	 * @param pageName The name of the page parsed by this parser, such as its URL.
+	 */
+	public void setProfiledPageName(String pageName) {
+		this.profiledPageName = pageName;
+	}
+
+	/**
+	 *
+	 * @return The name under which the time spent in this parser is reported by the {@link ParserProfile}, or null
+	 * to only report it as part of the page being parsed when it is used.
+	 */
+	protected String getProfiledPageName() {
+		return profiledPageName;
+	}
+
+	private List<ContextEvent> parseNext() {
 		if(currentExternalParser != null) {
 			// If there is an external parser, we delegate to it.
 			return currentExternalParser.next();
@@ -229,14 +425,29 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 			Position position = positions.next();
 
 			// Check if we need external parsing logic at this position.
+			long start = ParserProfile.isEnabled() ? System.nanoTime() : 0;
 			this.currentExternalParser = core.parseExternally(position, currentContextStack);
+			if(ParserProfile.isEnabled()) {
+				ParserProfile.time("External parsing checks", start);
+				ParserProfile.Page page = ParserProfile.getCurrentPage();
+				if(page != null) {
+					page.positions++;
+				}
+			}
 			if(currentExternalParser != null) {
+				if(ParserProfile.isEnabled()) {
+					ParserProfile.count("External parsers spawned", 1);
+				}
 				// We built an external parser.
 				// Return an empty list, and the next iteration will consume it.
 				return List.of();
 			}
 
+			start = ParserProfile.isEnabled() ? System.nanoTime() : 0;
 			List<ContextEvent> events = parsePosition(position);
+			if(ParserProfile.isEnabled()) {
+				ParserProfile.time("Positions parsed", start);
+			}
 			if(!events.isEmpty()) {
 				// Events produced from this position : return them.
 				return events;
@@ -249,10 +460,61 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 		return close(currentContextStack);
 	}
 
+	/**
+	 * Switch the contexts of the current stack to streaming mode, so that the following contexts do not keep references
+	 * to their previous children.
+	 */
+	protected final void streamContexts() {
+		List<Context> streamingStack = new ArrayList<>(currentContextStack.size());
+		for(Context context: currentContextStack) {
+			streamingStack.add(context.streaming());
+		}
+		currentContextStack.clear();
+		currentContextStack.addAll(streamingStack);
+	}
+
 	public final Stream<ContextEvent> asEventStream() {
 		return StreamUtils.toStream(StreamUtils.toFlatIterator(this));
 	}
 
+	/**
+	 * Parser which replays the events produced by another parser from the same context stack. The contexts opened and
+	 * closed by the events are applied to the context stack, as if the original parser ran again.
+	 */
+	public static class ReplayParser extends Parser<ContextEvent> {
+
+		private final Deque<Context> contextStack;
+
+		/**
+		 * @param events The events to replay.
+		 * @param currentContextStack The context stack the events were produced from. (Will be modified by the
+		 *                            replay).
+		 */
+		public ReplayParser(Iterator<ContextEvent> events, Deque<Context> currentContextStack) {
+			super((ancestorStack, type, previousOfType, event) -> new ParserCore.PositionParseOutput(null),
+					events, currentContextStack);
+			this.contextStack = currentContextStack;
+		}
+
+		@Override
+		protected List<ContextEvent> parsePosition(ContextEvent event) {
+			if(event.type == ContextEvent.Type.OPEN) {
+				Context parentCtx = contextStack.removeFirst().addChild(new Context(event.metadata, event.value));
+				Context childCtx = parentCtx.getLastChild().orElseThrow();
+				contextStack.addFirst(parentCtx);
+				contextStack.addFirst(childCtx);
+				return List.of(new ContextEvent(ContextEvent.Type.OPEN, childCtx));
+			}
+
+			Context closedCtx = contextStack.peekFirst();
+			if(contextStack.size() < 2 || !closedCtx.metadata.equals(event.metadata)) {
+				throw new IllegalStateException("Cannot replay " + event + " : the current context is " + closedCtx);
+			}
+			contextStack.removeFirst();
+			return List.of(new ContextEvent(ContextEvent.Type.CLOSE, closedCtx));
+		}
+	}
+
 	public static class TerminalParser<Position> extends Parser<Position> {
 
 		private final Context rootContext;
@@ -266,6 +528,16 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 			this.rootContext = rootContext;
 		}
 
+		@Override
+		protected String getProfiledPageName() {
+			String pageName = super.getProfiledPageName();
+			if(pageName != null) {
+				return pageName;
+			}
+			// Several pages may fill the same context : tell them apart by their index.
+			return "#" + ParserProfile.nextPageIndex() + " " + rootContext.metadata;
+		}
+
 		@Override
 		protected List<ContextEvent> close(Deque<Context> currentContextStack) {
 			// Collect close events for the active stack, up until the root context
@@ -277,7 +549,13 @@ public class Parser<Position> implements Iterator<List<ContextEvent>> {
 			return events;
 		}
 
+		/**
+		 * Parse the document as a stream. The contexts are kept in streaming mode (see {@link Context#streaming()}),
+		 * since the contexts already streamed are not needed anymore.
+		 * @return The stream of the root context.
+		 */
 		public ContextStream.Single asContextStream() {
+			streamContexts();
 			return new ContextStream.Single(rootContext.metadata, StreamUtils.concatStreams(
 					Stream.of(new ContextEvent(ContextEvent.Type.OPEN, rootContext)),
 					asEventStream(),
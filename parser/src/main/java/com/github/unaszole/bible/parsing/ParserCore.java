@@ -8,6 +8,8 @@ import java.util.List;
 
 /**
  * Logic specific to the parsing of a specific document structure.
+ * A core instance must only be used by a single {@link Parser}, as it may keep state between calls : to parse several
+ * documents at the same time, create one core per parser.
  * @param <Position> The type representing a given position in the document.
  *                  (Typically a lexeme, in a lexeme-based parser)
  */
@@ -39,6 +41,9 @@ public interface ParserCore<Position> {
      * @param previousOfType Metadata of the previous sibling of the same type, or null if there is none.
      * @param position The position to check for a context opening.
      * @return The result of trying to build a context from this position.
+     * If no context is returned, the parser assumes that the same request at the same position will not return a
+     * context either, until a context is returned for another request : it will not call this method again with the
+     * same type, previous sibling and ancestors (compared by metadata and value) in the meantime.
      */
     PositionParseOutput readContext(List<Context> ancestorStack, ContextType type,
                                     ContextMetadata previousOfType, Position position);
@@ -0,0 +1,169 @@
+package com.github.unaszole.bible.parsing;
+
+import java.io.PrintStream;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in measurements of where the parsers spend their time : positions parsed, context reads by type, implicit
+ * contexts, discarded tentative states, external parsers, and the same measurements for each page.
+ * <p>
+ * A page is parsed by a parser with a page name (see {@link Parser#setProfiledPageName(String)}). The measurements of
+ * a page exclude the other pages parsed while parsing it, but include the parsers it uses without a page name.
+ * <p>
+ * Disabled by default, as the measurements slow down the parsing.
+ */
+public final class ParserProfile {
+
+    /**
+     * Number of pages listed in the report, slowest first.
+     */
+    private static final int NB_REPORTED_PAGES = 20;
+
+    /**
+     * Measurements of a single page.
+     */
+    static class Page {
+        final String name;
+        long positions = 0;
+        long contextReads = 0;
+        long contextReadNanos = 0;
+        long implicitContexts = 0;
+        long discardedStates = 0;
+        long nanos = 0;
+        /**
+         * Time spent parsing other pages while parsing this one.
+         */
+        long nestedNanos = 0;
+
+        Page(String name) {
+            this.name = name;
+        }
+
+        long getOwnNanos() {
+            return nanos - nestedNanos;
+        }
+    }
+
+    private static volatile boolean enabled = false;
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> TIMERS = new ConcurrentHashMap<>();
+    private static final Queue<Page> PAGES = new ConcurrentLinkedQueue<>();
+    private static final AtomicLong PAGE_INDEXES = new AtomicLong();
+    /**
+     * The page being parsed by the current thread.
+     */
+    private static final ThreadLocal<Page> CURRENT_PAGE = new ThreadLocal<>();
+
+    private ParserProfile() {
+    }
+
+    /**
+     * Start measuring all parsers from now on.
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void count(String counter, long amount) {
+        COUNTERS.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Count one occurrence of an operation, and the time it took.
+     * @param operation The name of the operation.
+     * @param startNanos The {@link System#nanoTime()} when the operation started.
+     */
+    static void time(String operation, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        count(operation, 1);
+        TIMERS.computeIfAbsent(operation, k -> new LongAdder()).add(nanos);
+    }
+
+    /**
+     *
+     * @return A new index, to tell apart the pages which have no better name.
+     */
+    static long nextPageIndex() {
+        return PAGE_INDEXES.incrementAndGet();
+    }
+
+    /**
+     *
+     * @return The page being parsed by the current thread, or null if none.
+     */
+    static Page getCurrentPage() {
+        return CURRENT_PAGE.get();
+    }
+
+    /**
+     * Attribute the following measurements of the current thread to the given page.
+     * @param page The page to parse.
+     * @return The page that was being parsed, to restore with {@link #exitPage(Page, Page, long)}.
+     */
+    static Page enterPage(Page page) {
+        Page previous = CURRENT_PAGE.get();
+        CURRENT_PAGE.set(page);
+        return previous;
+    }
+
+    /**
+     * Attribute the following measurements of the current thread to the page that was parsed before.
+     * @param page The page that was parsed.
+     * @param previous The page returned by {@link #enterPage(Page)}.
+     * @param nanos The time spent since {@link #enterPage(Page)}.
+     */
+    static void exitPage(Page page, Page previous, long nanos) {
+        page.nanos += nanos;
+        if(previous != null) {
+            previous.nestedNanos += nanos;
+            CURRENT_PAGE.set(previous);
+        }
+        else {
+            CURRENT_PAGE.remove();
+        }
+    }
+
+    static void recordPage(Page page) {
+        PAGES.add(page);
+    }
+
+    /**
+     * Print the measurements, if enabled.
+     * @param out The stream to print to.
+     */
+    public static void printReport(PrintStream out) {
+        if(!enabled) {
+            return;
+        }
+
+        out.println("== PARSER PROFILE ==");
+        new TreeMap<>(COUNTERS).forEach((counter, value) -> {
+            LongAdder nanos = TIMERS.get(counter);
+            out.println(counter + " : " + value.sum()
+                    + (nanos != null ? " (" + nanos.sum() / 1_000_000 + " ms)" : ""));
+        });
+
+        if(!PAGES.isEmpty()) {
+            out.println("Slowest pages :");
+            PAGES.stream()
+                    .sorted(Comparator.comparingLong(Page::getOwnNanos).reversed())
+                    .limit(NB_REPORTED_PAGES)
+                    .forEach(p -> out.println("-> " + p.name + " : " + p.getOwnNanos() / 1_000_000 + " ms, "
+                            + p.positions + " positions, "
+                            + p.contextReads + " context reads (" + p.contextReadNanos / 1_000_000 + " ms), "
+                            + p.implicitContexts + " implicit contexts, "
+                            + p.discardedStates + " discarded states"));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.unaszole.bible.parsing;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable stack, viewed as a read-only list starting from its top element.
+ * Pushing and popping are done in constant time, and return new stacks sharing their elements with this one.
+ * @param <T> The type of elements.
+ */
+final class PersistentStack<T> extends AbstractList<T> {
+
+    private static final PersistentStack<?> EMPTY = new PersistentStack<>(null, null, 0);
+
+    private final T top;
+    private final PersistentStack<T> rest;
+    private final int size;
+
+    private PersistentStack(T top, PersistentStack<T> rest, int size) {
+        this.top = top;
+        this.rest = rest;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> PersistentStack<T> empty() {
+        return (PersistentStack<T>) EMPTY;
+    }
+
+    /**
+     * @param elements Elements, starting from the top of the stack.
+     * @return A stack of the given elements.
+     */
+    static <T> PersistentStack<T> of(Iterable<T> elements) {
+        List<T> fromBottom = new ArrayList<>();
+        elements.forEach(fromBottom::add);
+        Collections.reverse(fromBottom);
+
+        PersistentStack<T> stack = empty();
+        for(T element: fromBottom) {
+            stack = stack.push(element);
+        }
+        return stack;
+    }
+
+    PersistentStack<T> push(T element) {
+        return new PersistentStack<>(element, this, size + 1);
+    }
+
+    PersistentStack<T> pop() {
+        if(size == 0) {
+            throw new NoSuchElementException("Empty stack");
+        }
+        return rest;
+    }
+
+    /**
+     * @return The elements of this stack, starting from the bottom (ie. in the order they were pushed).
+     */
+    List<T> toListFromBottom() {
+        List<T> fromBottom = new ArrayList<>(this);
+        Collections.reverse(fromBottom);
+        return fromBottom;
+    }
+
+    @Override
+    public T get(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for stack of size " + size);
+        }
+        PersistentStack<T> stack = this;
+        for(int i = 0; i < index; i++) {
+            stack = stack.rest;
+        }
+        return stack.top;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private PersistentStack<T> current = PersistentStack.this;
+
+            @Override
+            public boolean hasNext() {
+                return current.size > 0;
+            }
+
+            @Override
+            public T next() {
+                if(current.size == 0) {
+                    throw new NoSuchElementException();
+                }
+                T element = current.top;
+                current = current.rest;
+                return element;
+            }
+        };
+    }
+}
@@ -10,6 +10,7 @@ import java.util.*;
 /**
  * Implementation of {@link ParserCore} which allows outputting a fixed sequence of contexts from a position before
  * moving to the next.
+ * The buffered contexts make instances stateful : an instance must only be used by a single parser.
  * @param <Position> The type representing a given position in the document.
  */
 public abstract class PositionBufferedParserCore<Position> implements ParserCore<Position> {
@@ -45,7 +46,11 @@ public abstract class PositionBufferedParserCore<Position> implements ParserCore
 
         if(contextBuffer.isEmpty()) {
             // If buffer is empty, fill it with an actual call and save the position.
+            long start = ParserProfile.isEnabled() ? System.nanoTime() : 0;
             contextBuffer.addAll(readContexts(ancestorStack, type, previousOfType, position));
+            if(ParserProfile.isEnabled()) {
+                ParserProfile.time("Position analyses by buffered cores", start);
+            }
             currentPosition = position;
         }
 
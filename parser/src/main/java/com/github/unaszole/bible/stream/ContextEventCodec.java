@@ -0,0 +1,420 @@
+package com.github.unaszole.bible.stream;
+
+import com.github.unaszole.bible.datamodel.ContextId;
+import com.github.unaszole.bible.datamodel.ContextMetadata;
+import com.github.unaszole.bible.datamodel.ContextType;
+import com.github.unaszole.bible.datamodel.IdField;
+import com.github.unaszole.bible.datamodel.valuetypes.Attachment;
+import org.crosswire.jsword.versification.BibleBook;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Compact binary format for sequences of {@link ContextEvent}s, to store parse results and replay them without
+ * parsing again.
+ * <p>
+ * The format is a sequence of records, each starting with a record kind. Context types and metadata are defined once,
+ * the first time they are used, and referred to by their index afterwards. Integers are written as varints. Values
+ * are tagged with their kind, and a CLOSE event with the same value as its OPEN event only refers to it. Attachments
+ * are not stored : only a reference is, which must be resolved when reading.
+ */
+public final class ContextEventCodec {
+
+    private static final int MAGIC = 0x42534556;
+    /**
+     * Version of the format. Version 1 stored bible books by their position in {@link BibleBook}, which is not stable
+     * across releases of the library : they are now stored by their OSIS name.
+     */
+    private static final int VERSION = 2;
+
+    private static final int RECORD_END = 0;
+    private static final int RECORD_TYPE = 1;
+    private static final int RECORD_METADATA = 2;
+    private static final int RECORD_OPEN = 3;
+    private static final int RECORD_CLOSE = 4;
+
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_INTEGER = 2;
+    private static final int VALUE_INTEGER_LIST = 3;
+    private static final int VALUE_BIBLE_BOOK = 4;
+    private static final int VALUE_URI = 5;
+    private static final int VALUE_ATTACHMENT = 6;
+    private static final int VALUE_SAME_AS_OPEN = 7;
+
+    /**
+     * Stands for a null value in the stacks of open values.
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    private ContextEventCodec() {
+    }
+
+    /**
+     * Streaming writer of events. The events written must be well nested : each CLOSE matches the last OPEN not yet
+     * closed.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final Function<Attachment, String> attachmentReferences;
+        private final Map<ContextType, Integer> typeIndexes = new HashMap<>();
+        private final Map<ContextMetadata, Integer> metadataIndexes = new HashMap<>();
+        private final Deque<Object> openValues = new ArrayDeque<>();
+
+        /**
+         * @param out The stream to write to. Closed when this writer is closed.
+         * @param attachmentReferences Gives the reference to store for an attachment, or null if attachments are
+         *                             not expected.
+         */
+        public Writer(OutputStream out, Function<Attachment, String> attachmentReferences) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.attachmentReferences = attachmentReferences;
+            this.out.writeInt(MAGIC);
+            writeVarint(VERSION);
+        }
+
+        private void writeVarint(int value) throws IOException {
+            while((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private void writeSignedVarint(int value) throws IOException {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if(value == null) {
+                writeVarint(VALUE_NULL);
+            }
+            else if(value instanceof String) {
+                writeVarint(VALUE_STRING);
+                writeString((String) value);
+            }
+            else if(value instanceof Integer) {
+                writeVarint(VALUE_INTEGER);
+                writeSignedVarint((Integer) value);
+            }
+            else if(value instanceof List && ((List<?>) value).stream().allMatch(i -> i instanceof Integer)) {
+                writeVarint(VALUE_INTEGER_LIST);
+                writeVarint(((List<?>) value).size());
+                for(Object i: (List<?>) value) {
+                    writeSignedVarint((Integer) i);
+                }
+            }
+            else if(value instanceof BibleBook) {
+                writeVarint(VALUE_BIBLE_BOOK);
+                writeString(((BibleBook) value).getOSIS());
+            }
+            else if(value instanceof URI) {
+                writeVarint(VALUE_URI);
+                writeString(value.toString());
+            }
+            else if(value instanceof Attachment && attachmentReferences != null) {
+                writeVarint(VALUE_ATTACHMENT);
+                writeString(attachmentReferences.apply((Attachment) value));
+            }
+            else {
+                throw new IllegalArgumentException("Cannot serialize value " + value + " of " + value.getClass());
+            }
+        }
+
+        private int getTypeIndex(ContextType type) throws IOException {
+            Integer index = typeIndexes.get(type);
+            if(index == null) {
+                if(!(type instanceof Enum)) {
+                    throw new IllegalArgumentException("Cannot serialize context type " + type + " : not an enum.");
+                }
+                index = typeIndexes.size();
+                writeVarint(RECORD_TYPE);
+                writeString(((Enum<?>) type).getDeclaringClass().getName());
+                writeString(type.name());
+                typeIndexes.put(type, index);
+            }
+            return index;
+        }
+
+        private int getMetadataIndex(ContextMetadata metadata) throws IOException {
+            Integer index = metadataIndexes.get(metadata);
+            if(index == null) {
+                int typeIndex = getTypeIndex(metadata.type);
+                index = metadataIndexes.size();
+                writeVarint(RECORD_METADATA);
+                writeVarint(typeIndex);
+                if(metadata.id != null) {
+                    for(IdField<?> field: metadata.id.idType.fields) {
+                        writeValue(metadata.id.get(field));
+                    }
+                }
+                metadataIndexes.put(metadata, index);
+            }
+            return index;
+        }
+
+        public void write(ContextEvent event) throws IOException {
+            int metadataIndex = getMetadataIndex(event.metadata);
+            if(event.type == ContextEvent.Type.OPEN) {
+                writeVarint(RECORD_OPEN);
+                writeVarint(metadataIndex);
+                writeValue(event.value);
+                openValues.push(event.value == null ? NULL_VALUE : event.value);
+            }
+            else {
+                writeVarint(RECORD_CLOSE);
+                writeVarint(metadataIndex);
+                Object openValue = openValues.poll();
+                if(event.value != null && event.value.equals(openValue)) {
+                    writeVarint(VALUE_SAME_AS_OPEN);
+                }
+                else {
+                    writeValue(event.value);
+                }
+            }
+        }
+
+        /**
+         * Mark the end of the events, and close the underlying stream.
+         */
+        @Override
+        public void close() throws IOException {
+            writeVarint(RECORD_END);
+            out.close();
+        }
+    }
+
+    /**
+     * Streaming reader of events, reading each event only when requested.
+     */
+    public static class Reader implements Iterator<ContextEvent>, Closeable {
+        private final DataInputStream in;
+        private final Function<String, Attachment> attachmentResolver;
+        private final List<ContextType> types = new ArrayList<>();
+        private final List<ContextMetadata> metadata = new ArrayList<>();
+        private final Deque<Object> openValues = new ArrayDeque<>();
+        private ContextEvent nextEvent = null;
+        private boolean ended = false;
+
+        /**
+         * @param in The stream to read from. Closed when the last event is read, or when this reader is closed.
+         * @param attachmentResolver Gives the attachment for a stored reference, or null if attachments are not
+         *                           expected.
+         */
+        public Reader(InputStream in, Function<String, Attachment> attachmentResolver) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            this.attachmentResolver = attachmentResolver;
+            if(this.in.readInt() != MAGIC) {
+                throw new IOException("Not a serialized stream of events.");
+            }
+            int version = readVarint();
+            if(version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of serialized events.");
+            }
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for(int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint.");
+        }
+
+        private int readSignedVarint() throws IOException {
+            int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[readVarint()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private Object readValue() throws IOException {
+            return readValue(readVarint());
+        }
+
+        private Object readValue(int kind) throws IOException {
+            switch (kind) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_STRING:
+                    return readString();
+                case VALUE_INTEGER:
+                    return readSignedVarint();
+                case VALUE_INTEGER_LIST:
+                    int size = readVarint();
+                    List<Integer> list = new ArrayList<>(size);
+                    for(int i = 0; i < size; i++) {
+                        list.add(readSignedVarint());
+                    }
+                    return list;
+                case VALUE_BIBLE_BOOK:
+                    String osis = readString();
+                    BibleBook book = BibleBook.fromOSIS(osis);
+                    if(book == null) {
+                        throw new IOException("Unknown bible book " + osis);
+                    }
+                    return book;
+                case VALUE_URI:
+                    return URI.create(readString());
+                case VALUE_ATTACHMENT:
+                    String reference = readString();
+                    if(attachmentResolver == null) {
+                        throw new IOException("Cannot resolve attachment " + reference);
+                    }
+                    return attachmentResolver.apply(reference);
+                default:
+                    throw new IOException("Unknown value kind " + kind);
+            }
+        }
+
+        private ContextType readType() throws IOException {
+            String className = readString();
+            String name = readString();
+            try {
+                Class<?> typeClass = Class.forName(className);
+                for(Object constant: typeClass.getEnumConstants()) {
+                    if(constant instanceof ContextType && ((ContextType) constant).name().equals(name)) {
+                        return (ContextType) constant;
+                    }
+                }
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unknown context type class " + className, e);
+            }
+            throw new IOException("Unknown context type " + className + "." + name);
+        }
+
+        private <T> void readField(ContextId.Builder builder, IdField<T> field) throws IOException {
+            builder.with(field, field.type.valueOf(readValue()));
+        }
+
+        private ContextMetadata readMetadata() throws IOException {
+            ContextType type = types.get(readVarint());
+            if(type.idType().fields == null) {
+                return new ContextMetadata(type);
+            }
+            ContextId.Builder builder = new ContextId.Builder(type.idType());
+            for(IdField<?> field: type.idType().fields) {
+                readField(builder, field);
+            }
+            return new ContextMetadata(type, builder.build());
+        }
+
+        private ContextEvent readEvent() throws IOException {
+            while(true) {
+                int record = readVarint();
+                switch (record) {
+                    case RECORD_END:
+                        return null;
+                    case RECORD_TYPE:
+                        types.add(readType());
+                        break;
+                    case RECORD_METADATA:
+                        metadata.add(readMetadata());
+                        break;
+                    case RECORD_OPEN: {
+                        ContextMetadata meta = metadata.get(readVarint());
+                        Object value = readValue();
+                        openValues.push(value == null ? NULL_VALUE : value);
+                        return new ContextEvent(ContextEvent.Type.OPEN, meta, value);
+                    }
+                    case RECORD_CLOSE: {
+                        ContextMetadata meta = metadata.get(readVarint());
+                        Object openValue = openValues.poll();
+                        int kind = readVarint();
+                        Object value = kind == VALUE_SAME_AS_OPEN ? openValue : readValue(kind);
+                        return new ContextEvent(ContextEvent.Type.CLOSE, meta, value);
+                    }
+                    default:
+                        throw new IOException("Unknown record kind " + record);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(nextEvent == null && !ended) {
+                try {
+                    nextEvent = readEvent();
+                    if(nextEvent == null) {
+                        close();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return nextEvent != null;
+        }
+
+        @Override
+        public ContextEvent next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ContextEvent event = nextEvent;
+            nextEvent = null;
+            return event;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ended = true;
+            in.close();
+        }
+    }
+
+    /**
+     * Write all events of a stream.
+     * @param stream The events to write.
+     * @param out The output, closed when all events are written.
+     * @param attachmentReferences Gives the reference to store for an attachment, or null if attachments are not
+     *                             expected.
+     */
+    public static void write(Stream<ContextEvent> stream, OutputStream out,
+                             Function<Attachment, String> attachmentReferences) throws IOException {
+        try(Writer writer = new Writer(out, attachmentReferences)) {
+            Iterator<ContextEvent> it = stream.iterator();
+            while(it.hasNext()) {
+                writer.write(it.next());
+            }
+        }
+    }
+
+    /**
+     * Read a stream of events for a single root context. Only the first event is read immediately, the following
+     * ones are read as the stream is consumed.
+     * @param in The input, closed when all events are read.
+     * @param attachmentResolver Gives the attachment for a stored reference, or null if attachments are not expected.
+     * @return The context stream.
+     */
+    public static ContextStream.Single read(InputStream in, Function<String, Attachment> attachmentResolver)
+            throws IOException {
+        Reader reader = new Reader(in, attachmentResolver);
+        if(!reader.hasNext()) {
+            throw new IOException("No event to read.");
+        }
+        ContextEvent first = reader.next();
+        return new ContextStream.Single(first.metadata, StreamUtils.concatStreams(
+                Stream.of(first),
+                StreamUtils.toStream(reader)
+        ));
+    }
+}
@@ -7,27 +7,81 @@ import com.github.unaszole.bible.parsing.PositionBufferedParserCore;
 import com.github.unaszole.bible.parsing.Parser;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 
 import static com.github.unaszole.bible.parsing.ContextReaderListBuilder.context;
 
 public abstract class ContextStream<StreamType extends ContextStream<StreamType>> {
 
+    private static final ThreadLocal<Boolean> IS_WORKER = ThreadLocal.withInitial(() -> false);
+    private static ExecutorService workers = null;
+    private static volatile int parallelism = 1;
+
+    /**
+     * Set the number of threads used to consume the children of composed streams (see {@link #fromContents} and
+     * {@link ContextStreamEditor#inject}). With more than one thread, up to twice that number of children are parsed
+     * ahead while the previous ones are being consumed, and their events are still returned in document order.
+     * <p>
+     * Defaults to 1, which consumes each child lazily when it is reached. Only the innermost compositions with several
+     * lazily produced children are parallelized (eg. the chapters of each book, rather than the books of a bible) :
+     * each child parsed ahead is kept in memory until it is reached, so only a few chapters are held at once.
+     * @param nbThreads The number of threads.
+     */
+    public static synchronized void setParallelism(int nbThreads) {
+        if(workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
+        if(nbThreads > 1) {
+            workers = Executors.newFixedThreadPool(nbThreads, r -> {
+                Thread t = new Thread(() -> {
+                    IS_WORKER.set(true);
+                    r.run();
+                }, "context-stream-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        parallelism = Math.max(nbThreads, 1);
+    }
+
+    /**
+     * @return The workers to consume the children of composed streams ahead, or null to consume them sequentially.
+     */
+    static ExecutorService getWorkers() {
+        // The children of a child consumed ahead are consumed sequentially, not to wait for a busy pool.
+        if(parallelism <= 1 || IS_WORKER.get()) {
+            return null;
+        }
+        synchronized (ContextStream.class) {
+            return workers;
+        }
+    }
+
+    static int getLookahead() {
+        return 2 * parallelism;
+    }
+
     public static ContextStream.Single fromContents(Context rootContext, List<? extends ContextStream<?>> contextStreams) {
-        List<Stream<ContextEvent>> streams = new ArrayList<>();
+        List<StreamSegment> segments = new ArrayList<>();
 
-        streams.add(Stream.of(new ContextEvent(ContextEvent.Type.OPEN, rootContext)));
+        segments.add(StreamSegment.of(new ContextEvent(ContextEvent.Type.OPEN, rootContext)));
         for (final ContextStream<?> contextStream : contextStreams) {
-            streams.add(contextStream.stream);
+            segments.add(contextStream.segment);
         }
-        streams.add(Stream.of(new ContextEvent(ContextEvent.Type.CLOSE, rootContext)));
+        segments.add(StreamSegment.of(new ContextEvent(ContextEvent.Type.CLOSE, rootContext)));
 
-        return new ContextStream.Single(rootContext.metadata, StreamUtils.concatStreams(streams));
+        return new ContextStream.Single(rootContext.metadata, StreamSegment.concat(segments, true));
     }
 
     public final ContextMetadata firstRoot;
     public final ContextMetadata lastRoot;
-    private final Stream<ContextEvent> stream;
+    /**
+     * The composition of this stream, flattened into a single stream of events when consumed.
+     */
+    final StreamSegment segment;
 
     /**
      * @param firstRoot The first root context included within this stream.
@@ -35,13 +89,17 @@ public abstract class ContextStream<StreamType extends ContextStream<StreamType>
      * @param stream The events contained within that context. (INCLUDING the open/close of all root contexts !)
      */
     public ContextStream(ContextMetadata firstRoot, ContextMetadata lastRoot, Stream<ContextEvent> stream) {
+        this(firstRoot, lastRoot, StreamSegment.of(stream));
+    }
+
+    ContextStream(ContextMetadata firstRoot, ContextMetadata lastRoot, StreamSegment segment) {
         this.firstRoot = firstRoot;
         this.lastRoot = lastRoot;
-        this.stream = stream;
+        this.segment = segment;
     }
 
     protected abstract StreamType getThis();
-    protected abstract StreamType build(ContextMetadata firstRoot, ContextMetadata lastRoot, Stream<ContextEvent> stream);
+    abstract StreamType build(ContextMetadata firstRoot, ContextMetadata lastRoot, StreamSegment segment);
     public ContextStreamEditor<StreamType> edit() {
         return new ContextStreamEditor<>(getThis());
     }
@@ -50,7 +108,7 @@ public abstract class ContextStream<StreamType extends ContextStream<StreamType>
      * @return The stream of events for this context, including the OPEN and CLOSE events for this context.
      */
     public Stream<ContextEvent> getStream() {
-        return stream;
+        return segment.stream();
     }
 
     /**
@@ -61,35 +119,38 @@ public abstract class ContextStream<StreamType extends ContextStream<StreamType>
     public Context extractContext(ContextMetadata wantedMetadata) {
 
         // Easy implementation : just use a parser on the event stream... after removing the open and close events.
-        Iterator<ContextEvent> it = stream
-                .dropWhile(e -> Objects.equals(e.metadata, wantedMetadata))
-                .takeWhile(e -> !(Objects.equals(e.metadata, wantedMetadata)))
-                .iterator();
-
-        Context extractedContext = new Context(wantedMetadata);
-        new Parser.TerminalParser<>(new PositionBufferedParserCore<>() {
-            @Override
-            protected List<ContextReader> readContexts(List<Context> ancestorStack, ContextType type,
-                                                       ContextMetadata previousOfType, ContextEvent event) {
-                if (event.type == ContextEvent.Type.OPEN && event.metadata.type == type) {
-                    return context(event.metadata, event.value).build();
+        // The stream is closed once the context is extracted, as the following events are not consumed.
+        try(Stream<ContextEvent> events = getStream()) {
+            Iterator<ContextEvent> it = events
+                    .dropWhile(e -> Objects.equals(e.metadata, wantedMetadata))
+                    .takeWhile(e -> !(Objects.equals(e.metadata, wantedMetadata)))
+                    .iterator();
+
+            Context extractedContext = new Context(wantedMetadata);
+            new Parser.TerminalParser<>(new PositionBufferedParserCore<>() {
+                @Override
+                protected List<ContextReader> readContexts(List<Context> ancestorStack, ContextType type,
+                                                           ContextMetadata previousOfType, ContextEvent event) {
+                    if (event.type == ContextEvent.Type.OPEN && event.metadata.type == type) {
+                        return context(event.metadata, event.value).build();
+                    }
+                    return List.of();
                 }
-                return List.of();
-            }
-        }, it, extractedContext).fill();
+            }, it, extractedContext).fill();
 
-        return extractedContext;
+            return extractedContext;
+        }
     }
 
-    protected Stream<ContextEvent> internalExtract(ContextMetadata firstWanted, ContextMetadata lastWanted) {
+    StreamSegment internalExtract(ContextMetadata firstWanted, ContextMetadata lastWanted) {
         // Initial check : if the wanted contexts are this stream's root contexts, we're good, return the same stream.
         if(Objects.equals(firstWanted, firstRoot) && Objects.equals(lastWanted, lastRoot)) {
-            return this.stream;
+            return this.segment;
         }
 
         // Else return a stream built from an interval within the current stream.
         final boolean[] closed = new boolean[] {false};
-        return stream
+        return StreamSegment.of(getStream()
                 // Drop everything until the OPEN of the first wanted context.
                 .dropWhile(e -> !(e.type == ContextEvent.Type.OPEN && Objects.equals(e.metadata, firstWanted)))
                 // Drop everything after the CLOSE of the last wanted context
@@ -102,7 +163,7 @@ public abstract class ContextStream<StreamType extends ContextStream<StreamType>
                     return true;
                 })
                 //.peek(e -> System.out.println("Extracting context " + wantedContext + " : found event " + e))
-        ;
+        );
     }
 
     /**
@@ -136,9 +197,13 @@ public abstract class ContextStream<StreamType extends ContextStream<StreamType>
             return this;
         }
 
+        Single(ContextMetadata rootContext, StreamSegment segment) {
+            super(rootContext, rootContext, segment);
+        }
+
         @Override
-        protected Single build(ContextMetadata firstRoot, ContextMetadata lastRoot, Stream<ContextEvent> stream) {
-            return new Single(firstRoot, stream);
+        Single build(ContextMetadata firstRoot, ContextMetadata lastRoot, StreamSegment segment) {
+            return new Single(firstRoot, segment);
         }
 
         /**
@@ -166,9 +231,13 @@ public abstract class ContextStream<StreamType extends ContextStream<StreamType>
             return this;
         }
 
+        Sequence(ContextMetadata firstRoot, ContextMetadata lastRoot, StreamSegment segment) {
+            super(firstRoot, lastRoot, segment);
+        }
+
         @Override
-        protected Sequence build(ContextMetadata firstRoot, ContextMetadata lastRoot, Stream<ContextEvent> stream) {
-            return new Sequence(firstRoot, lastRoot, stream);
+        Sequence build(ContextMetadata firstRoot, ContextMetadata lastRoot, StreamSegment segment) {
+            return new Sequence(firstRoot, lastRoot, segment);
         }
     }
 }
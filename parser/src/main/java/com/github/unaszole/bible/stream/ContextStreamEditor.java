@@ -6,7 +6,6 @@ import com.github.unaszole.bible.datamodel.IdField;
 
 import java.util.*;
 import java.util.function.*;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class ContextStreamEditor<StreamType extends ContextStream<StreamType>> {
@@ -36,49 +35,113 @@ public class ContextStreamEditor<StreamType extends ContextStream<StreamType>> {
          * If null, the events are forwarded unchanged.
          */
         public final Function<ContextEvent, Stream<ContextEvent>> substitution;
+        /**
+         * The same substitution, as a segment to compose with the edited stream, or null if the event is unchanged.
+         */
+        final Function<ContextEvent, StreamSegment> segmentSubstitution;
 
-        public Action(Predicate<ContextEvent> from, boolean fromIncluded,
-                      Predicate<ContextEvent> until, boolean untilIncluded,
-                      Function<ContextEvent, Stream<ContextEvent>> substitution) {
+        private Action(Predicate<ContextEvent> from, boolean fromIncluded,
+                       Predicate<ContextEvent> until, boolean untilIncluded,
+                       Function<ContextEvent, Stream<ContextEvent>> substitution,
+                       Function<ContextEvent, StreamSegment> segmentSubstitution) {
             this.from = from;
             this.fromIncluded = fromIncluded;
             this.until = until;
             this.untilIncluded = untilIncluded;
             this.substitution = substitution;
+            this.segmentSubstitution = segmentSubstitution;
+        }
+
+        public Action(Predicate<ContextEvent> from, boolean fromIncluded,
+                      Predicate<ContextEvent> until, boolean untilIncluded,
+                      Function<ContextEvent, Stream<ContextEvent>> substitution) {
+            this(from, fromIncluded, until, untilIncluded, substitution,
+                    substitution == null ? null : e -> StreamSegment.of(substitution.apply(e)));
         }
 
         public static Action singleEvent(Predicate<ContextEvent> at,
                                          Function<ContextEvent, Stream<ContextEvent>> substitution) {
             return new Action(at, true, at.negate(), false, substitution);
         }
+
+        static Action ofSegments(Predicate<ContextEvent> from, boolean fromIncluded,
+                                 Predicate<ContextEvent> until, boolean untilIncluded,
+                                 Function<ContextEvent, StreamSegment> segmentSubstitution) {
+            return new Action(from, fromIncluded, until, untilIncluded,
+                    e -> segmentSubstitution.apply(e).stream(), segmentSubstitution);
+        }
+
+        static Action singleEventOfSegments(Predicate<ContextEvent> at,
+                                            Function<ContextEvent, StreamSegment> segmentSubstitution) {
+            return ofSegments(at, true, at.negate(), false, segmentSubstitution);
+        }
+    }
+
+    private static List<StreamSegment> getSegments(List<? extends ContextStream<?>> contextStreams) {
+        List<StreamSegment> segments = new ArrayList<>();
+        for(ContextStream<?> cs: contextStreams) {
+            segments.add(cs.segment);
+        }
+        return segments;
+    }
+
+    /**
+     * Condition matching one type of event for a given context. The metadata of an event are only compared once their
+     * type and hash match, so that most events are rejected without comparing their IDs.
+     */
+    private static final class MetadataTrigger implements Predicate<ContextEvent> {
+        private final ContextEvent.Type eventType;
+        private final ContextMetadata metadata;
+        private final int hash;
+
+        private MetadataTrigger(ContextEvent.Type eventType, ContextMetadata metadata) {
+            this.eventType = eventType;
+            this.metadata = metadata;
+            this.hash = Objects.hashCode(metadata);
+        }
+
+        @Override
+        public boolean test(ContextEvent e) {
+            return e.type == eventType && metadata != null && e.metadata.type == metadata.type
+                    && e.metadata.hashCode() == hash && e.metadata.equals(metadata);
+        }
+    }
+
+    private static Predicate<ContextEvent> eventPredicate(ContextEvent.Type type, BiPredicate<ContextMetadata, Object> target) {
+        return e -> e.type == type && target.test(e.metadata, e.value);
     }
 
     private final StreamType originalStream;
-    private final Stream<ContextEvent> stream;
     private final List<Action> actions = new ArrayList<>();
+    private boolean inAnyOrder = false;
 
     public ContextStreamEditor(StreamType originalStream) {
         this.originalStream = originalStream;
-        this.stream = originalStream.getStream();
     }
 
-    public ContextStreamEditor<StreamType> replace(final BiPredicate<ContextMetadata, Object> from,
-                                                   final BiPredicate<ContextMetadata, Object> until,
-                                                   final List<? extends ContextStream<?>> by) {
+    private ContextStreamEditor<StreamType> replace(final Predicate<ContextEvent> fromOpen,
+                                                    final Predicate<ContextEvent> untilClose,
+                                                    final List<? extends ContextStream<?>> by) {
         // Start deleting all events from the OPEN of first element, included.
-        actions.add(new Action(
-                e -> e.type == ContextEvent.Type.OPEN && from.test(e.metadata, e.value), true,
-                e -> e.type == ContextEvent.Type.CLOSE && until.test(e.metadata, e.value), false,
-                e -> Stream.of()
+        actions.add(Action.ofSegments(
+                fromOpen, true,
+                untilClose, false,
+                e -> StreamSegment.EMPTY
         ));
         // Replace the CLOSE event of the last element by the given streams.
-        actions.add(Action.singleEvent(
-                e -> e.type == ContextEvent.Type.CLOSE && until.test(e.metadata, e.value),
-                e -> StreamUtils.concatStreams(by.stream().map(ContextStream::getStream).collect(Collectors.toList()))
+        actions.add(Action.singleEventOfSegments(
+                untilClose,
+                e -> StreamSegment.concat(getSegments(by), false)
         ));
         return this;
     }
 
+    public ContextStreamEditor<StreamType> replace(final BiPredicate<ContextMetadata, Object> from,
+                                                   final BiPredicate<ContextMetadata, Object> until,
+                                                   final List<? extends ContextStream<?>> by) {
+        return replace(eventPredicate(ContextEvent.Type.OPEN, from), eventPredicate(ContextEvent.Type.CLOSE, until), by);
+    }
+
     public ContextStreamEditor<StreamType> replace(BiPredicate<ContextMetadata, Object> from,
                                                    BiPredicate<ContextMetadata, Object> until,
                                                    ContextStream<?>... by) {
@@ -91,9 +154,10 @@ public class ContextStreamEditor<StreamType extends ContextStream<StreamType>> {
     }
 
     public ContextStreamEditor<StreamType> remove(final ContextMetadata from, final ContextMetadata until) {
-        return remove(
-                (m, v) -> Objects.equals(m, from),
-                (m, v) -> Objects.equals(m, until)
+        return replace(
+                new MetadataTrigger(ContextEvent.Type.OPEN, from),
+                new MetadataTrigger(ContextEvent.Type.CLOSE, until),
+                List.of()
         );
     }
 
@@ -127,28 +191,31 @@ public class ContextStreamEditor<StreamType extends ContextStream<StreamType>> {
         }
     }
 
-    public ContextStreamEditor<StreamType> inject(final InjectionPosition pos,
-                                                  final BiPredicate<ContextMetadata, Object> target,
-                                                  final List<? extends ContextStream<?>> contextStreams) {
-        actions.add(Action.singleEvent(
-                        e -> e.type == pos.injectionEventType && target.test(e.metadata, e.value),
+    private ContextStreamEditor<StreamType> inject(final InjectionPosition pos,
+                                                   final Predicate<ContextEvent> target,
+                                                   final List<? extends ContextStream<?>> contextStreams) {
+        actions.add(Action.singleEventOfSegments(
+                        target,
                         e -> {
-                            List<Stream<ContextEvent>> streams = new ArrayList<>();
-                            for(ContextStream<?> cs: contextStreams) {
-                                streams.add(cs.getStream());
-                            }
-                            streams.add(pos.injectBeforeEvent ? streams.size() : 0, Stream.of(e));
+                            List<StreamSegment> segments = getSegments(contextStreams);
+                            segments.add(pos.injectBeforeEvent ? segments.size() : 0, StreamSegment.of(e));
 
-                            return StreamUtils.concatStreams(streams);
+                            return StreamSegment.concat(segments, true);
                         }
                 )
         );
         return this;
     }
 
+    public ContextStreamEditor<StreamType> inject(final InjectionPosition pos,
+                                                  final BiPredicate<ContextMetadata, Object> target,
+                                                  final List<? extends ContextStream<?>> contextStreams) {
+        return inject(pos, eventPredicate(pos.injectionEventType, target), contextStreams);
+    }
+
     public ContextStreamEditor<StreamType> inject(InjectionPosition pos, final ContextMetadata target,
                                                   List<? extends ContextStream<?>> contextStreams) {
-        return inject(pos, (m, v) -> Objects.equals(m, target), contextStreams);
+        return inject(pos, new MetadataTrigger(pos.injectionEventType, target), contextStreams);
     }
 
     public ContextStreamEditor<StreamType> inject(InjectionPosition pos, BiPredicate<ContextMetadata, Object> target,
@@ -194,9 +261,14 @@ public class ContextStreamEditor<StreamType extends ContextStream<StreamType>> {
                     .ifPresent(nfv -> builder.with(field, nfv));
         }
 
+        /**
+         *
+         * @param e An event.
+         * @return The updated event, or the same event if the updater has nothing to change.
+         */
         public ContextEvent apply(ContextEvent e) {
             ContextId newId = e.metadata.id;
-            if(newId != null) {
+            if(newId != null && !idFieldUpdaters.isEmpty()) {
                 ContextId.Builder newIdBuilder = new ContextId.Builder(newId);
                 // Loop through all ID fields to check for an updater.
                 for (IdField<?> field : e.metadata.type.idType().fields) {
@@ -206,36 +278,53 @@ public class ContextStreamEditor<StreamType extends ContextStream<StreamType>> {
             }
 
             // If we have a value updater, and it returns a new value, use it.
-            Object newValue = Optional.ofNullable(valueUpdater)
-                    .flatMap(u -> (Optional<Object>) u.apply(e.metadata, e.value))
-                    .orElse(e.value);
+            Object newValue = e.value;
+            if(valueUpdater != null) {
+                Optional<?> updatedValue = valueUpdater.apply(e.metadata, e.value);
+                if(updatedValue.isPresent()) {
+                    newValue = updatedValue.get();
+                }
+            }
 
+            if(newId == e.metadata.id && newValue == e.value) {
+                return e;
+            }
             return new ContextEvent(e.type,
-                    new ContextMetadata(e.metadata.type, newId),
+                    newId == e.metadata.id ? e.metadata : new ContextMetadata(e.metadata.type, newId),
                     newValue
             );
         }
+
+        /**
+         *
+         * @param e An event.
+         * @return The segment replacing the event, or null if the updater has nothing to change.
+         */
+        StreamSegment substitute(ContextEvent e) {
+            ContextEvent updated = apply(e);
+            return updated == e ? null : StreamSegment.of(updated);
+        }
     }
 
     public ContextStreamEditor<StreamType> updateContexts(final ContextMetadata from, final ContextMetadata until,
                                                           final ContextUpdater updater) {
-        actions.add(new Action(
-                e -> e.type == ContextEvent.Type.OPEN && Objects.equals(e.metadata, from),
+        actions.add(Action.ofSegments(
+                new MetadataTrigger(ContextEvent.Type.OPEN, from),
                 true,
-                e -> e.type == ContextEvent.Type.CLOSE && Objects.equals(e.metadata, until),
+                new MetadataTrigger(ContextEvent.Type.CLOSE, until),
                 true,
-                e -> Stream.of(updater.apply(e)))
+                updater::substitute)
         );
         return this;
     }
 
     public ContextStreamEditor<StreamType> updateContextsUntilTheEnd(final ContextUpdater updater) {
-        actions.add(new Action(
+        actions.add(Action.ofSegments(
                 e -> true,
                 true,
                 e -> false,
                 true,
-                e -> Stream.of(updater.apply(e))
+                updater::substitute
         ));
         return this;
     }
@@ -243,71 +332,217 @@ public class ContextStreamEditor<StreamType extends ContextStream<StreamType>> {
     public ContextStreamEditor<StreamType> mergeSiblings(final ContextMetadata firstMeta, final ContextMetadata secondMeta) {
         final ContextEvent[] fistItemClosing = { null };
         // When encountering the first item's close event, save it and remove it from the stream.
-        actions.add(Action.singleEvent(
-                e -> e.type == ContextEvent.Type.CLOSE && Objects.equals(e.metadata, firstMeta),
+        actions.add(Action.singleEventOfSegments(
+                new MetadataTrigger(ContextEvent.Type.CLOSE, firstMeta),
                 e -> {
                     fistItemClosing[0] = e;
-                    return Stream.of();
+                    return StreamSegment.EMPTY;
                 }
         ));
         // When encountering the second item's open event, remove it from the stream.
-        actions.add(Action.singleEvent(
-                e -> e.type == ContextEvent.Type.OPEN && Objects.equals(e.metadata, secondMeta),
-                e -> Stream.of()
+        actions.add(Action.singleEventOfSegments(
+                new MetadataTrigger(ContextEvent.Type.OPEN, secondMeta),
+                e -> StreamSegment.EMPTY
         ));
         // When encountering the second item's close event, replace it by the first.
-        actions.add(Action.singleEvent(
-                e -> e.type == ContextEvent.Type.CLOSE && Objects.equals(e.metadata, secondMeta),
-                e -> Stream.of(fistItemClosing[0])
+        actions.add(Action.singleEventOfSegments(
+                new MetadataTrigger(ContextEvent.Type.CLOSE, secondMeta),
+                e -> StreamSegment.of(fistItemClosing[0])
         ));
         return this;
     }
 
-    private Stream<ContextEvent> applyToStream() {
-        final int[] currentActionIndex = { -1 };
-        final boolean[] currentActionComplete = { true };
+    /**
+     * Applies the actions to the events of the original stream : it returns the substitution for an event, or null if
+     * the event is unchanged. Only one action runs at a time : the next action may only start once the current one
+     * is complete.
+     */
+    private static abstract class ActionRunner implements Function<ContextEvent, StreamSegment> {
+        /**
+         * The current action, or null if there is none or if it is complete.
+         */
+        private Action current = null;
+
+        /**
+         * @param e An event, while no action is running.
+         * @return The action starting on this event, or null if none. The returned action is considered started,
+         * and will not start again.
+         */
+        abstract Action startAction(ContextEvent e);
+
+        private static StreamSegment substitute(Action action, ContextEvent e) {
+            return action.segmentSubstitution != null ? action.segmentSubstitution.apply(e) : null;
+        }
 
-        return StreamUtils.lazyFlatMap(stream, e -> {
-            if(currentActionIndex[0] >= 0 && !currentActionComplete[0]) {
+        @Override
+        public StreamSegment apply(ContextEvent e) {
+            if(current != null) {
                 // There is a current action which is not yet complete.
-                Action currentAction = actions.get(currentActionIndex[0]);
+                Action currentAction = current;
 
                 // Check if it terminates.
                 if(currentAction.until != null && currentAction.until.test(e)) {
                     // The current action terminates now...
-                    currentActionComplete[0] = true;
+                    current = null;
                     if(currentAction.untilIncluded) {
                         // ... but after this event. Process the substitution.
-                        return currentAction.substitution.apply(e);
+                        return substitute(currentAction, e);
                     }
                 }
                 else {
                     // Process the substitution normally.
-                    return currentAction.substitution.apply(e);
+                    return substitute(currentAction, e);
                 }
             }
 
             // Check if a next action is ready to start.
-            if(currentActionIndex[0] < actions.size() - 1) {
-                Action nextAction = actions.get(currentActionIndex[0] + 1);
-
-                if(nextAction.from == null || nextAction.from.test(e)) {
-                    // The next action starts now...
-                    currentActionIndex[0]++;
-                    currentActionComplete[0] = false;
-                    if(nextAction.fromIncluded) {
-                        // ... including this event. Perform the substitution.
-                        return nextAction.substitution.apply(e);
-                    }
+            Action nextAction = startAction(e);
+            if(nextAction != null) {
+                // The next action starts now...
+                current = nextAction;
+                if(nextAction.fromIncluded) {
+                    // ... including this event. Perform the substitution.
+                    return substitute(nextAction, e);
                 }
             }
 
             // Else, no action took place, return the event unmodified.
-            return Stream.of(e);
-        });
+            return null;
+        }
+    }
+
+    /**
+     * Runs the actions in order : only the action following the last started one may start, so that the cost of an
+     * event does not depend on the number of actions.
+     */
+    private static final class SequentialActionRunner extends ActionRunner {
+        private final Action[] actions;
+        private int nextIndex = 0;
+
+        private SequentialActionRunner(Action[] actions) {
+            this.actions = actions;
+        }
+
+        @Override
+        Action startAction(ContextEvent e) {
+            if(nextIndex < actions.length) {
+                Action next = actions[nextIndex];
+                if(next.from == null || next.from.test(e)) {
+                    nextIndex++;
+                    return next;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Actions compiled to run in any order. Actions starting on the opening or closing of a given context are indexed
+     * by the metadata of this context. Other actions are checked on every event.
+     */
+    private static final class ActionIndex {
+        private final Action[] actions;
+        private final Map<ContextMetadata, int[]> onOpen = new HashMap<>();
+        private final Map<ContextMetadata, int[]> onClose = new HashMap<>();
+        /**
+         * Indices of the actions which are not indexed, in order.
+         */
+        private final int[] scanned;
+
+        private static void addIndex(Map<ContextMetadata, int[]> map, ContextMetadata metadata, int actionIndex) {
+            int[] previous = map.getOrDefault(metadata, new int[0]);
+            int[] indices = Arrays.copyOf(previous, previous.length + 1);
+            indices[previous.length] = actionIndex;
+            map.put(metadata, indices);
+        }
+
+        private ActionIndex(Action[] actions) {
+            this.actions = actions;
+            List<Integer> scannedList = new ArrayList<>();
+            for(int i = 0; i < actions.length; i++) {
+                if(actions[i].from instanceof MetadataTrigger) {
+                    MetadataTrigger trigger = (MetadataTrigger) actions[i].from;
+                    if(trigger.metadata != null) {
+                        addIndex(trigger.eventType == ContextEvent.Type.OPEN ? onOpen : onClose, trigger.metadata, i);
+                    }
+                    // A trigger without metadata never matches : the action is dropped.
+                }
+                else {
+                    scannedList.add(i);
+                }
+            }
+            this.scanned = scannedList.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Runs the actions in any order : each action starts on the first event matching its starting condition, found
+     * by metadata in the {@link ActionIndex}. If several actions may start on the same event, the first one added to
+     * the editor starts.
+     */
+    private static final class IndexedActionRunner extends ActionRunner {
+        private final ActionIndex index;
+        private final boolean[] started;
+
+        private IndexedActionRunner(ActionIndex index) {
+            this.index = index;
+            this.started = new boolean[index.actions.length];
+        }
+
+        @Override
+        Action startAction(ContextEvent e) {
+            int first = -1;
+            int[] candidates = (e.type == ContextEvent.Type.OPEN ? index.onOpen : index.onClose).get(e.metadata);
+            if(candidates != null) {
+                for(int i: candidates) {
+                    if(!started[i]) {
+                        first = i;
+                        break;
+                    }
+                }
+            }
+            for(int i: index.scanned) {
+                if(first >= 0 && i > first) {
+                    break;
+                }
+                Action action = index.actions[i];
+                if(!started[i] && (action.from == null || action.from.test(e))) {
+                    first = i;
+                    break;
+                }
+            }
+
+            if(first < 0) {
+                return null;
+            }
+            started[first] = true;
+            return index.actions[first];
+        }
+    }
+
+    /**
+     * Let the actions of this editor start in any order, instead of waiting for the previous action to complete.
+     * <p>
+     * All actions are armed from the start of the stream, and each one starts on the first event matching its starting
+     * condition. Actions targeting a given context are found by a lookup on the metadata of each event, so that the
+     * cost of an event does not depend on the number of such actions. Actions must not overlap : while an action runs,
+     * no other action starts.
+     * @return This editor.
+     */
+    public ContextStreamEditor<StreamType> inAnyOrder() {
+        this.inAnyOrder = true;
+        return this;
     }
 
     public StreamType process() {
-        return originalStream.build(originalStream.firstRoot, originalStream.lastRoot, applyToStream());
+        // The actions are compiled once, each consumption of the stream only needs a new runner state.
+        final Action[] compiledActions = actions.toArray(new Action[0]);
+        if(inAnyOrder) {
+            final ActionIndex index = new ActionIndex(compiledActions);
+            return originalStream.build(originalStream.firstRoot, originalStream.lastRoot,
+                    StreamSegment.edit(originalStream.segment, () -> new IndexedActionRunner(index)));
+        }
+        return originalStream.build(originalStream.firstRoot, originalStream.lastRoot,
+                StreamSegment.edit(originalStream.segment, () -> new SequentialActionRunner(compiledActions)));
     }
 }
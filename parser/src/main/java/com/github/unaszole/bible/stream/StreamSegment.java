@@ -0,0 +1,370 @@
+package com.github.unaszole.bible.stream;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A node in the composition of a {@link ContextStream} : a source stream, a list of events, a concatenation of
+ * segments, or an edit of another segment.
+ * <p>
+ * Compositions are only flattened when the events are consumed, into a single iterator : each event goes through a
+ * single loop that applies the edits enclosing it, instead of climbing through a stack of nested streams.
+ */
+abstract class StreamSegment {
+
+    static final StreamSegment EMPTY = new Events(List.of());
+
+    static StreamSegment of(Stream<ContextEvent> stream) {
+        return new Source(stream);
+    }
+
+    static StreamSegment of(ContextEvent event) {
+        return new Events(List.of(event));
+    }
+
+    /**
+     * @param segments The segments to concatenate, in order.
+     * @param parallelizable True if the segments may be consumed ahead on worker threads, as configured by
+     *                       {@link ContextStream#setParallelism(int)}.
+     * @return The concatenation of the segments.
+     */
+    static StreamSegment concat(List<StreamSegment> segments, boolean parallelizable) {
+        return new Concat(segments, parallelizable);
+    }
+
+    /**
+     * @param input The segment to edit.
+     * @param editorSupplier Supplies, for each consumption of the segment, the function applied to each event of the
+     *                       input : it returns the segment replacing the event, or null to leave the event unchanged.
+     * @return The edited segment.
+     */
+    static StreamSegment edit(StreamSegment input, Supplier<Function<ContextEvent, StreamSegment>> editorSupplier) {
+        return new Edit(input, editorSupplier);
+    }
+
+    /**
+     * @return The events of this segment, flattened. Closing the stream releases the segments being consumed.
+     */
+    Stream<ContextEvent> stream() {
+        FlatIterator it = new FlatIterator(this);
+        return StreamUtils.toStream(it).onClose(it::close);
+    }
+
+    /**
+     * @return True if this segment produces some of its events lazily, rather than from a list known in advance.
+     */
+    boolean hasSource() {
+        return false;
+    }
+
+    /**
+     * @return True if this segment contains a composition that may be consumed ahead by children, ie. with at least
+     * two children producing their events lazily.
+     */
+    boolean isSplittable() {
+        return false;
+    }
+
+    /**
+     * @param sink The enclosing edit frame which receives the events of this segment, or null.
+     * @return A new frame to consume this segment.
+     */
+    abstract Frame newFrame(EditFrame sink);
+
+    private static class Source extends StreamSegment {
+        private final Stream<ContextEvent> stream;
+
+        private Source(Stream<ContextEvent> stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        Stream<ContextEvent> stream() {
+            return stream;
+        }
+
+        @Override
+        boolean hasSource() {
+            return true;
+        }
+
+        @Override
+        Frame newFrame(EditFrame sink) {
+            return new IteratorFrame(sink, stream.iterator(), null);
+        }
+    }
+
+    private static class Events extends StreamSegment {
+        private final List<ContextEvent> events;
+
+        private Events(List<ContextEvent> events) {
+            this.events = events;
+        }
+
+        @Override
+        Stream<ContextEvent> stream() {
+            return events.stream();
+        }
+
+        @Override
+        Frame newFrame(EditFrame sink) {
+            return new ListFrame(sink, events);
+        }
+    }
+
+    private static class Concat extends StreamSegment {
+        private final List<StreamSegment> segments;
+        private final boolean parallelizable;
+        private final boolean hasSource;
+        private final boolean splittable;
+        /**
+         * True if the segments are consumed ahead, rather than the segments nested within them.
+         */
+        private final boolean innermostSplittable;
+
+        private Concat(List<StreamSegment> segments, boolean parallelizable) {
+            this.segments = segments;
+            this.parallelizable = parallelizable;
+            this.hasSource = segments.stream().anyMatch(StreamSegment::hasSource);
+            boolean nestedSplittable = segments.stream().anyMatch(StreamSegment::isSplittable);
+            this.innermostSplittable = parallelizable && !nestedSplittable
+                    && segments.stream().filter(StreamSegment::hasSource).count() >= 2;
+            this.splittable = nestedSplittable || innermostSplittable;
+        }
+
+        @Override
+        boolean hasSource() {
+            return hasSource;
+        }
+
+        @Override
+        boolean isSplittable() {
+            return splittable;
+        }
+
+        @Override
+        Frame newFrame(EditFrame sink) {
+            // Only the innermost compositions are consumed ahead (eg. the chapters of a book, rather than the books of
+            // a bible) : each segment consumed ahead is kept in memory until it is reached, so they must be small.
+            ExecutorService workers = innermostSplittable ? ContextStream.getWorkers() : null;
+            if(workers != null) {
+                Stream<ContextEvent> ahead = StreamUtils.concatStreamsAhead(
+                        segments.stream().map(StreamSegment::stream).collect(Collectors.toList()),
+                        workers, ContextStream.getLookahead()
+                );
+                return new IteratorFrame(sink, ahead.iterator(), ahead::close);
+            }
+            return new ListFrame(sink, segments);
+        }
+    }
+
+    private static class Edit extends StreamSegment {
+        private final StreamSegment input;
+        private final Supplier<Function<ContextEvent, StreamSegment>> editorSupplier;
+
+        private Edit(StreamSegment input, Supplier<Function<ContextEvent, StreamSegment>> editorSupplier) {
+            this.input = input;
+            this.editorSupplier = editorSupplier;
+        }
+
+        @Override
+        boolean hasSource() {
+            return input.hasSource();
+        }
+
+        @Override
+        boolean isSplittable() {
+            return input.isSplittable();
+        }
+
+        @Override
+        Frame newFrame(EditFrame sink) {
+            return new EditFrame(sink, input, editorSupplier.get());
+        }
+    }
+
+    /**
+     * Marks the end of a frame.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * The state of consumption of a segment.
+     */
+    private static abstract class Frame {
+        /**
+         * The enclosing edit which receives the events of this frame, or null if they are returned as is.
+         */
+        final EditFrame sink;
+
+        Frame(EditFrame sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * @return The next event of this frame, a nested segment to consume before continuing, or {@link #END}.
+         */
+        abstract Object next();
+
+        /**
+         * @param segment A nested segment returned by {@link #next()}.
+         * @return The frame to consume it.
+         */
+        Frame nestedFrame(StreamSegment segment) {
+            return segment.newFrame(sink);
+        }
+
+        /**
+         * Release this frame, whether it reached its end or not.
+         */
+        void close() {
+            // Nothing to release by default.
+        }
+    }
+
+    private static class IteratorFrame extends Frame {
+        private final Iterator<ContextEvent> it;
+        private final Runnable onClose;
+
+        /**
+         * @param onClose Called when the frame is closed, or null.
+         */
+        IteratorFrame(EditFrame sink, Iterator<ContextEvent> it, Runnable onClose) {
+            super(sink);
+            this.it = it;
+            this.onClose = onClose;
+        }
+
+        @Override
+        Object next() {
+            return it.hasNext() ? it.next() : END;
+        }
+
+        @Override
+        void close() {
+            if(onClose != null) {
+                onClose.run();
+            }
+        }
+    }
+
+    /**
+     * Frame going through a list of events or nested segments.
+     */
+    private static class ListFrame extends Frame {
+        private final List<?> items;
+        private int index = 0;
+
+        ListFrame(EditFrame sink, List<?> items) {
+            super(sink);
+            this.items = items;
+        }
+
+        @Override
+        Object next() {
+            return index < items.size() ? items.get(index++) : END;
+        }
+    }
+
+    private static class EditFrame extends Frame {
+        private StreamSegment input;
+        private final Function<ContextEvent, StreamSegment> editor;
+
+        EditFrame(EditFrame sink, StreamSegment input, Function<ContextEvent, StreamSegment> editor) {
+            super(sink);
+            this.input = input;
+            this.editor = editor;
+        }
+
+        @Override
+        Object next() {
+            // The input is consumed in a nested frame, which sends its events to this one.
+            StreamSegment nested = input;
+            input = null;
+            return nested != null ? nested : END;
+        }
+
+        @Override
+        Frame nestedFrame(StreamSegment segment) {
+            return segment.newFrame(this);
+        }
+    }
+
+    private static class FlatIterator implements Iterator<ContextEvent> {
+        private final Deque<Frame> frames = new ArrayDeque<>();
+        private StreamSegment root;
+        private ContextEvent nextEvent = null;
+
+        FlatIterator(StreamSegment root) {
+            this.root = root;
+        }
+
+        /**
+         * Send an event through the enclosing edits, until it is returned or replaced by a segment.
+         */
+        private void dispatch(ContextEvent event, EditFrame sink) {
+            while(sink != null) {
+                StreamSegment replacement = sink.editor.apply(event);
+                if(replacement != null) {
+                    if(replacement instanceof Events && ((Events) replacement).events.size() == 1) {
+                        // Single event replacement : keep going without a frame.
+                        event = ((Events) replacement).events.get(0);
+                    }
+                    else {
+                        frames.push(replacement.newFrame(sink.sink));
+                        return;
+                    }
+                }
+                sink = sink.sink;
+            }
+            nextEvent = event;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(root != null) {
+                // Only open the segment when consumption starts, on the consuming thread.
+                frames.push(root.newFrame(null));
+                root = null;
+            }
+            while(nextEvent == null && !frames.isEmpty()) {
+                Frame frame = frames.peek();
+                Object item = frame.next();
+                if(item == END) {
+                    frames.pop().close();
+                }
+                else if(item instanceof ContextEvent) {
+                    dispatch((ContextEvent) item, frame.sink);
+                }
+                else {
+                    frames.push(frame.nestedFrame((StreamSegment) item));
+                }
+            }
+            return nextEvent != null;
+        }
+
+        @Override
+        public ContextEvent next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ContextEvent event = nextEvent;
+            nextEvent = null;
+            return event;
+        }
+
+        /**
+         * Release the frames being consumed, if the consumer stops before the end.
+         */
+        void close() {
+            root = null;
+            while(!frames.isEmpty()) {
+                frames.pop().close();
+            }
+        }
+    }
+}
@@ -1,38 +1,44 @@
 package com.github.unaszole.bible.stream;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.BaseStream;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class StreamUtils {
     public static <T> Iterator<T> toFlatIterator(Iterator<List<T>> listIt) {
-        final Deque<T> buffer = new LinkedList<>();
         return new Iterator<>() {
+            private List<T> buffer = List.of();
+            private int index = 0;
+
             @Override
             public boolean hasNext() {
-                while (buffer.isEmpty() && listIt.hasNext()) {
-                    buffer.addAll(listIt.next());
+                while (index >= buffer.size() && listIt.hasNext()) {
+                    buffer = listIt.next();
+                    index = 0;
                 }
-                return !buffer.isEmpty();
+                return index < buffer.size();
             }
 
             @Override
             public T next() {
-                return buffer.removeFirst();
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return buffer.get(index++);
             }
         };
     }
 
     public static <T> Stream<T> toStream(final Iterator<T> it) {
-        // Else return a stream that iterates on it.
-        return Stream.iterate((T)null, p -> {
-            if(it.hasNext()) {
-                return it.next();
-            }
-            return null;
-        }).skip(1).takeWhile(Objects::nonNull);
+        // The iterator is only called when the stream is consumed, one element at a time.
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), false);
     }
 
     private static class ChainedIterator<T> implements Iterator<T> {
@@ -69,18 +75,69 @@ public class StreamUtils {
         return new ChainedIterator<>(iterators);
     }
 
+    /**
+     * Spliterator going through the streams mapped from each element of a source, one after the other.
+     * A source element is only mapped when the previous stream is exhausted.
+     */
+    private static class FlatMapSpliterator<T, R> implements Spliterator<R>, Consumer<T> {
+        private final Spliterator<T> source;
+        private final Function<? super T, ? extends Stream<R>> mapper;
+        private Spliterator<R> current = null;
+
+        private FlatMapSpliterator(Spliterator<T> source, Function<? super T, ? extends Stream<R>> mapper) {
+            this.source = source;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public void accept(T t) {
+            current = mapper.apply(t).spliterator();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super R> action) {
+            while(current == null || !current.tryAdvance(action)) {
+                current = null;
+                if(!source.tryAdvance(this)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super R> action) {
+            if(current != null) {
+                current.forEachRemaining(action);
+                current = null;
+            }
+            source.forEachRemaining(t -> mapper.apply(t).spliterator().forEachRemaining(action));
+        }
+
+        @Override
+        public Spliterator<R> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED;
+        }
+    }
+
     public static <T, R> Stream<R> lazyFlatMap(Stream<T> stream, Function<? super T,? extends Stream<R>> mapper) {
         // This method is functionally equivalent to Stream.flatMap.
         // However, flatMap is not fully lazy, which causes the data sources of some streams to be called even when not needed.
-        return toStream(concatIterators(
-                stream.map(mapper)
-                        .map(BaseStream::iterator)
-                        .iterator()
-        ));
+        return StreamSupport.stream(new FlatMapSpliterator<>(stream.spliterator(), mapper), false);
     }
 
     public static <T> Stream<T> concatStreams(List<Stream<T>> streams) {
-        return lazyFlatMap(streams.stream(), s -> s);
+        return StreamSupport.stream(new FlatMapSpliterator<>(streams.spliterator(), Function.identity()), false);
     }
 
     @SafeVarargs
@@ -88,6 +145,94 @@ public class StreamUtils {
         return concatStreams(Arrays.asList(streams));
     }
 
+    private static class LookaheadIterator<T> implements Iterator<T> {
+        private final Iterator<Stream<T>> streams;
+        private final ExecutorService executor;
+        private final int lookahead;
+        private final Deque<Future<List<T>>> window = new ArrayDeque<>();
+        private Iterator<T> currentIterator = Collections.emptyIterator();
+        private boolean cancelled = false;
+
+        private LookaheadIterator(Iterator<Stream<T>> streams, ExecutorService executor, int lookahead) {
+            this.streams = streams;
+            this.executor = executor;
+            this.lookahead = lookahead;
+        }
+
+        private void fillWindow() {
+            while(!cancelled && window.size() < lookahead && streams.hasNext()) {
+                final Stream<T> stream = streams.next();
+                window.add(executor.submit(() -> stream.collect(Collectors.toList())));
+            }
+        }
+
+        private List<T> await(Future<List<T>> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                // The following streams will not be consumed : stop collecting them.
+                cancel();
+                if(e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        /**
+         * Stop collecting the streams of the window, and do not collect any further stream.
+         */
+        private void cancel() {
+            while(!window.isEmpty()) {
+                window.removeFirst().cancel(true);
+            }
+            currentIterator = Collections.emptyIterator();
+            cancelled = true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while(!currentIterator.hasNext()) {
+                fillWindow();
+                if(window.isEmpty()) {
+                    return false;
+                }
+                currentIterator = await(window.removeFirst()).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return currentIterator.next();
+        }
+    }
+
+    /**
+     * Concatenate streams in order, like {@link #concatStreams(List)}, but consume them ahead on an executor.
+     * Up to lookahead streams are collected in parallel, starting when the first element is requested. Exceptions
+     * thrown while collecting a stream are rethrown when the consumer reaches that stream, and the following streams
+     * are not collected anymore. If the consumer stops before the end, it must close the returned stream so that the
+     * streams collected in advance are cancelled.
+     * <p>
+     * Only use this for streams that can be consumed from another thread, and whose elements fit in memory.
+     * @param streams The streams to concatenate, in order.
+     * @param executor The executor to collect the streams on.
+     * @param lookahead The maximum number of streams collected in advance.
+     * @return A stream containing the elements of all streams, in order.
+     */
+    public static <T> Stream<T> concatStreamsAhead(List<Stream<T>> streams, ExecutorService executor, int lookahead) {
+        LookaheadIterator<T> it = new LookaheadIterator<>(streams.iterator(), executor, lookahead);
+        return toStream(it).onClose(it::cancel);
+    }
+
     public static <E> Iterator<E> deferredIterator(final Supplier<Iterator<E>> iteratorSupplier) {
         return new Iterator<>() {
             private Iterator<E> iterator = null;
@@ -109,6 +254,7 @@ public class StreamUtils {
     }
 
     public static <E> Stream<E> deferredStream(final Supplier<Stream<E>> streamSupplier) {
-        return toStream(deferredIterator(() -> streamSupplier.get().iterator()));
+        // The supplier is only called when the first element is requested.
+        return StreamSupport.stream(() -> streamSupplier.get().spliterator(), Spliterator.ORDERED, false);
     }
 }
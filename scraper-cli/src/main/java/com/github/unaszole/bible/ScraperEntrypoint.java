@@ -1,6 +1,8 @@
 package com.github.unaszole.bible;
 
+import com.github.unaszole.bible.cli.commands.CacheCommand;
 import com.github.unaszole.bible.cli.commands.HelpCommand;
+import com.github.unaszole.bible.cli.commands.PrefetchCommand;
 import com.github.unaszole.bible.cli.commands.ScrapeCommand;
 import picocli.CommandLine;
 
@@ -8,7 +10,7 @@ import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.Optional;
 
-@CommandLine.Command(name = "bible-scraper", subcommands = { ScrapeCommand.class, HelpCommand.class })
+@CommandLine.Command(name = "bible-scraper", subcommands = { ScrapeCommand.class, PrefetchCommand.class, HelpCommand.class, CacheCommand.class })
 public class ScraperEntrypoint {
 
     @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit.")
@@ -41,7 +41,9 @@ public class WriterArgument {
     }
 
     private void printStatus(ExecutionMonitor.Status status) {
-        System.out.printf("### Scraping: %5s / %s - %10s \r", status.completedItems, status.registeredItems, status.lastStartedItem);
+        StringBuilder indicators = new StringBuilder();
+        status.indicators.forEach((indicator, value) -> indicators.append(" [").append(indicator).append(": ").append(value).append("]"));
+        System.out.printf("### Scraping: %5s / %s - %10s%s \r", status.completedItems, status.registeredItems, status.lastStartedItem, indicators);
     }
 
     public BibleWriter get(DocumentMetadata docMeta) throws Exception {
@@ -0,0 +1,149 @@
+package com.github.unaszole.bible.cli.commands;
+
+import com.github.unaszole.bible.ScraperEntrypoint;
+import com.github.unaszole.bible.downloading.CachedDownloader;
+import com.github.unaszole.bible.downloading.CompressingStore;
+import com.github.unaszole.bible.downloading.LooseFileStore;
+import com.github.unaszole.bible.downloading.PackFileStore;
+import picocli.CommandLine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@CommandLine.Command(name = "cache", description = "Manage the cache of downloaded pages.",
+        subcommands = { CacheCommand.Pack.class, CacheCommand.Unpack.class, CacheCommand.Compress.class })
+public class CacheCommand {
+
+    @CommandLine.ParentCommand
+    ScraperEntrypoint entrypoint;
+
+    /**
+     *
+     * @param root The root folder to search.
+     * @return All cache directories within the root folder, ie. all folders which are not themselves pack stores.
+     */
+    private static List<Path> getCacheDirectories(Path root) throws IOException {
+        try(Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isDirectory)
+                    .filter(p -> !p.getFileName().toString().equals(PackFileStore.SUBDIRECTORY))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static Path getRoot(CacheCommand parent, Path folder) {
+        return folder != null ? folder : parent.entrypoint.getCachePath();
+    }
+
+    @CommandLine.Command(name = "pack", description = "Import the downloaded pages from one file per page into pack files, and compact the pack files.")
+    public static class Pack implements Callable<Integer> {
+
+        @CommandLine.ParentCommand
+        CacheCommand parent;
+
+        @CommandLine.Parameters(arity = "0..1", description = "Cache folder to convert, including its sub-folders. Defaults to the whole cache.")
+        Path folder;
+
+        @CommandLine.Option(names = "--delete", description = "Delete the page files once imported.")
+        boolean delete;
+
+        @Override
+        public Integer call() throws Exception {
+            for(Path directory: getCacheDirectories(getRoot(parent, folder))) {
+                LooseFileStore looseStore = new LooseFileStore(directory);
+                // Only import the pages themselves : data kept next to them stays readable as separate files.
+                List<String> keys = looseStore.keys().stream()
+                        .filter(CachedDownloader::isDownloadedFile)
+                        .collect(Collectors.toList());
+                Path packDirectory = directory.resolve(PackFileStore.SUBDIRECTORY);
+                if(keys.isEmpty() && !Files.isDirectory(packDirectory)) {
+                    continue;
+                }
+
+                int nbCopied;
+                long reclaimedBytes;
+                try(PackFileStore packStore = new PackFileStore(packDirectory)) {
+                    nbCopied = looseStore.copyTo(packStore, CachedDownloader::isDownloadedFile);
+                    reclaimedBytes = packStore.compact();
+                }
+                System.out.println(directory + " : " + nbCopied + " pages packed, " + reclaimedBytes + " bytes reclaimed.");
+
+                if(delete) {
+                    for(String key: keys) {
+                        Files.delete(directory.resolve(key));
+                    }
+                }
+            }
+            return 0;
+        }
+    }
+
+    @CommandLine.Command(name = "unpack", description = "Export the downloaded pages from pack files into one file per page.")
+    public static class Unpack implements Callable<Integer> {
+
+        @CommandLine.ParentCommand
+        CacheCommand parent;
+
+        @CommandLine.Parameters(arity = "0..1", description = "Cache folder to convert, including its sub-folders. Defaults to the whole cache.")
+        Path folder;
+
+        @Override
+        public Integer call() throws Exception {
+            for(Path directory: getCacheDirectories(getRoot(parent, folder))) {
+                Path packDirectory = directory.resolve(PackFileStore.SUBDIRECTORY);
+                if(!Files.isDirectory(packDirectory)) {
+                    continue;
+                }
+
+                int nbCopied;
+                try(PackFileStore packStore = new PackFileStore(packDirectory)) {
+                    nbCopied = packStore.copyTo(new LooseFileStore(directory));
+                }
+                System.out.println(directory + " : " + nbCopied + " pages unpacked.");
+            }
+            return 0;
+        }
+    }
+
+    @CommandLine.Command(name = "compress", description = "Compress the downloaded pages stored as one file per page.")
+    public static class Compress implements Callable<Integer> {
+
+        @CommandLine.ParentCommand
+        CacheCommand parent;
+
+        @CommandLine.Parameters(arity = "0..1", description = "Cache folder to compress, including its sub-folders. Defaults to the whole cache.")
+        Path folder;
+
+        @Override
+        public Integer call() throws Exception {
+            for(Path directory: getCacheDirectories(getRoot(parent, folder))) {
+                LooseFileStore looseStore = new LooseFileStore(directory);
+                CompressingStore compressingStore = new CompressingStore(looseStore, true);
+                int nbCompressed = 0;
+                // Only compress the pages themselves : data kept next to them must remain readable as is.
+                for(String key: looseStore.keys()) {
+                    if(!CachedDownloader.isDownloadedFile(key)) {
+                        continue;
+                    }
+                    byte[] data;
+                    try(InputStream in = looseStore.open(key)) {
+                        data = in.readAllBytes();
+                    }
+                    // Replaces the uncompressed page.
+                    compressingStore.store(key, new ByteArrayInputStream(data));
+                    nbCompressed++;
+                }
+                if(nbCompressed > 0) {
+                    System.out.println(directory + " : " + nbCompressed + " pages compressed.");
+                }
+            }
+            return 0;
+        }
+    }
+}
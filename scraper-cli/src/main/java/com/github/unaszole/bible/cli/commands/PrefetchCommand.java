@@ -0,0 +1,60 @@
+package com.github.unaszole.bible.cli.commands;
+
+import com.github.unaszole.bible.ScraperEntrypoint;
+import com.github.unaszole.bible.cli.args.ScraperArgument;
+import com.github.unaszole.bible.cli.args.WantedMetadataArgument;
+import com.github.unaszole.bible.downloading.CachedDownloader;
+import com.github.unaszole.bible.scraping.Scraper;
+import picocli.CommandLine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+@CommandLine.Command(name = "prefetch", description = "Download the pages of a Bible into the cache, without converting it.")
+public class PrefetchCommand implements Callable<Integer> {
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "Show this help message and exit.")
+    boolean usageHelpRequested;
+
+    @CommandLine.ParentCommand
+    ScraperEntrypoint entrypoint;
+
+    @CommandLine.ArgGroup(exclusive = false, multiplicity = "1", heading = "\n== Which portion of the Bible to fetch?\n")
+    WantedMetadataArgument wantedMetadata;
+
+    @CommandLine.ArgGroup(exclusive = false, multiplicity = "1", heading = "\n== Where to fetch the Bible from?\n")
+    ScraperArgument scraper;
+
+    @CommandLine.Option(names = {"--parallelism", "-p"}, defaultValue = "4", description = "Maximum number of pages downloaded at the same time.")
+    int parallelism;
+
+    @Override
+    public Integer call() throws Exception {
+        Path cachePath = entrypoint.getCachePath();
+        Files.createDirectories(cachePath);
+
+        Optional<CachedDownloader.FetchReport> report;
+        try(Scraper scraperInstance = scraper.get(cachePath)) {
+            report = scraperInstance.prefetch(wantedMetadata.get(), Math.max(parallelism, 1));
+        }
+        if(report.isEmpty()) {
+            System.out.println("This scraper cannot list its pages without parsing them : use the scrape command instead.");
+            return 1;
+        }
+
+        CachedDownloader.FetchReport r = report.get();
+        double seconds = Math.max(r.elapsed.toMillis(), 1) / 1000.0;
+        System.out.printf("%d pages fetched in %.1f s : %d downloaded (%d bytes, %.1f pages/s), %d already cached, %d failed.%n",
+                r.nbSourceFiles, seconds, r.nbDownloaded, r.downloadedBytes, r.nbDownloaded / seconds,
+                r.nbSourceFiles - r.nbDownloaded - r.failures.size(), r.failures.size());
+
+        if(!r.failures.isEmpty()) {
+            System.out.println("== FAILURES ==");
+            r.failures.forEach((sourceFile, e) -> System.out.println(sourceFile + " -> " + e.getMessage()));
+            return 1;
+        }
+        return 0;
+    }
+}
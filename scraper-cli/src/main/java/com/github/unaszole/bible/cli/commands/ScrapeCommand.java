@@ -5,7 +5,10 @@ import com.github.unaszole.bible.cli.args.ScraperArgument;
 import com.github.unaszole.bible.cli.args.WantedMetadataArgument;
 import com.github.unaszole.bible.cli.args.WriterArgument;
 import com.github.unaszole.bible.monitor.ExecutionMonitor;
+import com.github.unaszole.bible.parsing.Parser;
+import com.github.unaszole.bible.parsing.ParserProfile;
 import com.github.unaszole.bible.scraping.Scraper;
+import com.github.unaszole.bible.stream.ContextStream;
 import com.github.unaszole.bible.writing.ContextStreamWriter;
 import com.github.unaszole.bible.writing.interfaces.BibleWriter;
 import picocli.CommandLine;
@@ -32,33 +35,47 @@ public class ScrapeCommand implements Callable<Integer> {
     @CommandLine.ArgGroup(exclusive = false, multiplicity = "1", heading = "\n== How to export the Bible?\n")
     WriterArgument writer;
 
+    @CommandLine.Option(names = "--profileParser", description = "Measure where the parsing time goes, and print a report at the end.")
+    boolean profileParser;
+
+    @CommandLine.Option(names = "--parseThreads", defaultValue = "1", description = "Number of chapters or books parsed at the same time.")
+    int parseThreads;
+
     @Override
     public Integer call() throws Exception {
         Path cachePath = entrypoint.getCachePath();
         Files.createDirectories(cachePath);
 
-        Scraper scraperInstance = scraper.get(cachePath);
-
-        if(writer.isDebugEvents()) {
-            scraperInstance.stream(wantedMetadata.get()).getStream().forEachOrdered(
-                    System.out::println
-            );
-        }
-        else if(writer.isDebugCtx()) {
-            System.out.println(scraperInstance.stream(wantedMetadata.get()).extractContext());
+        if(profileParser) {
+            ParserProfile.enable();
         }
-        else {
-            ContextStreamWriter streamWriter = new ContextStreamWriter(
-                    scraperInstance.stream(wantedMetadata.get()).getStream(),
-                    writer.getTypographyFixer()
-            );
-            try(BibleWriter bibleWriter = writer.get(scraperInstance.getMeta())) {
-                streamWriter.writeBibleSubset(bibleWriter, wantedMetadata.get());
+        ContextStream.setParallelism(parseThreads);
+
+        try(Scraper scraperInstance = scraper.get(cachePath)) {
+            if(writer.isDebugEvents()) {
+                scraperInstance.stream(wantedMetadata.get()).getStream().forEachOrdered(
+                        System.out::println
+                );
+            }
+            else if(writer.isDebugCtx()) {
+                System.out.println(scraperInstance.stream(wantedMetadata.get()).extractContext());
+            }
+            else {
+                ContextStreamWriter streamWriter = new ContextStreamWriter(
+                        scraperInstance.stream(wantedMetadata.get()).getStream(),
+                        writer.getTypographyFixer()
+                );
+                try(BibleWriter bibleWriter = writer.get(scraperInstance.getMeta())) {
+                    streamWriter.writeBibleSubset(bibleWriter, wantedMetadata.get());
+                }
             }
         }
 
         System.out.println();
 
+        Parser.getStatistics().forEach(ExecutionMonitor.INSTANCE::count);
+        ExecutionMonitor.INSTANCE.printStatistics();
+        ParserProfile.printReport(System.out);
         ExecutionMonitor.INSTANCE.printMessages();
 
         return 0;
@@ -19,4 +19,27 @@ class ContextTypeTest {
                 "Chapter title can't be contained after structured text."
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIncrementalChildrenState() {
+        ContextChildrenSpec spec = BibleContainers.CHAPTER.childrenSpec();
+        List<ContextType> children = List.of(
+                BibleContainers.CHAPTER_TITLE, StructureMarkers.STRUCTURED_TEXT,
+                BibleContainers.VERSE, BibleContainers.VERSE, BibleContainers.VERSE
+        );
+
+        // Adding children one at a time must be equivalent to evaluating the spec against all children at once.
+        ContextChildrenSpec.State state = spec.getInitialState();
+        for(int i = 0; i <= children.size(); i++) {
+            List<ContextType> currentChildren = children.subList(0, i);
+            assertEquals(spec.getAllowedTypesForNextChild(currentChildren), state.getAllowedTypesForNextChild());
+            assertEquals(spec.isIncomplete(currentChildren), state.isIncomplete());
+            if(i < children.size()) {
+                state = state.withChild(children.get(i));
+            }
+        }
+
+        assertFalse(state.isIncomplete(), "Chapter with verses is complete.");
+        assertEquals(List.of(BibleContainers.VERSE), state.getAllowedTypesForNextChild());
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.unaszole.bible.downloading;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachedDownloaderTest {
+
+    /**
+     * Current version of the page served by the test server.
+     */
+    private final AtomicInteger version = new AtomicInteger(1);
+    private final AtomicBoolean down = new AtomicBoolean(false);
+    private final AtomicInteger nbRequests = new AtomicInteger();
+    private final AtomicInteger nbFullResponses = new AtomicInteger();
+
+    private HttpServer startServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        server.createContext("/page", exchange -> {
+            nbRequests.incrementAndGet();
+            if(down.get()) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                return;
+            }
+            String etag = "\"v" + version.get() + "\"";
+            if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            nbFullResponses.incrementAndGet();
+            byte[] body = ("Page v" + version.get()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+
+        server.start();
+        return server;
+    }
+
+    private static String read(CachedDownloader downloader, SourceFile source) throws IOException {
+        try(InputStream is = downloader.openStream(source)) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testRevalidation() throws IOException {
+        HttpServer server = startServer();
+        try {
+            SourceFile page = new HttpSourceFile(new HttpTransport(Duration.ofSeconds(5), Duration.ofSeconds(5)),
+                    new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/page"), null, "GET", null);
+            CacheStore store = new LooseFileStore(Files.createTempDirectory("cachedDownloader"));
+            CachedDownloader current = new CachedDownloader(store, Duration.ofHours(1),
+                    CachedDownloader.DEFAULT_NEGATIVE_TIME_TO_LIVE);
+            // Everything cached by this downloader is already expired.
+            CachedDownloader expired = new CachedDownloader(store, Duration.ZERO,
+                    CachedDownloader.DEFAULT_NEGATIVE_TIME_TO_LIVE);
+
+            assertEquals("Page v1", read(current, page));
+            assertEquals(1, nbRequests.get());
+
+            // Within its time to live, the cached page is used without asking the server.
+            assertEquals("Page v1", read(current, page));
+            assertEquals(1, nbRequests.get());
+
+            // Once expired, the unmodified page is revalidated without being sent again.
+            assertEquals(0, expired.fetch(page));
+            assertEquals("Page v1", read(current, page));
+            assertEquals(2, nbRequests.get());
+            assertEquals(1, nbFullResponses.get());
+
+            // Once expired, the modified page is fetched again.
+            version.set(2);
+            assertTrue(expired.fetch(page) > 0);
+            assertEquals("Page v2", read(current, page));
+            assertEquals(3, nbRequests.get());
+            assertEquals(2, nbFullResponses.get());
+
+            // If the page cannot be revalidated, the expired copy is still used.
+            down.set(true);
+            assertEquals("Page v2", read(expired, page));
+            assertEquals(4, nbRequests.get());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+}
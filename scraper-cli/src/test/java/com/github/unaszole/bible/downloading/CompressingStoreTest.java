@@ -0,0 +1,59 @@
+package com.github.unaszole.bible.downloading;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressingStoreTest {
+
+    private static void store(CacheStore store, String key, String contents) throws IOException {
+        store.store(key, new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String read(CacheStore store, String key) throws IOException {
+        try(InputStream is = store.open(key)) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void testCompressThenRefresh(CacheStore delegate) throws IOException {
+        CompressingStore uncompressed = new CompressingStore(delegate, false);
+        CompressingStore compressed = new CompressingStore(delegate, true);
+
+        // Downloaded uncompressed, then compressed.
+        store(uncompressed, "page", "v1");
+        store(compressed, "page", "v1");
+        assertEquals(List.of("page" + CompressingStore.SUFFIX), delegate.keys());
+        assertEquals("v1", read(uncompressed, "page"));
+
+        // Refreshed without compression : the new contents must not be hidden by the compressed ones.
+        store(uncompressed, "page", "v2");
+        assertEquals(List.of("page"), delegate.keys());
+        assertEquals("v2", read(uncompressed, "page"));
+        assertEquals("v2", read(compressed, "page"));
+
+        // Refreshed with compression again.
+        store(compressed, "page", "v3");
+        assertEquals(List.of("page" + CompressingStore.SUFFIX), delegate.keys());
+        assertEquals("v3", read(uncompressed, "page"));
+    }
+
+    @Test
+    public void testCompressThenRefreshFiles() throws IOException {
+        testCompressThenRefresh(new LooseFileStore(Files.createTempDirectory("compressingStore")));
+    }
+
+    @Test
+    public void testCompressThenRefreshPack() throws IOException {
+        try(PackFileStore pack = new PackFileStore(Files.createTempDirectory("compressingStore"))) {
+            testCompressThenRefresh(pack);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.unaszole.bible.downloading;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HostRateLimiterTest {
+
+    private static void request(HostRateLimiter limiter, HostRateLimiter.Outcome outcome, long latencyMillis)
+            throws InterruptedException {
+        limiter.acquire();
+        limiter.release(outcome, latencyMillis);
+    }
+
+    @Test
+    public void testAdaptiveLimits() throws InterruptedException {
+        HostRateLimiter limiter = new HostRateLimiter("test", new RateLimit(40, 3));
+
+        // Starts at a quarter of the maximal rate, one request at a time.
+        assertEquals(10, limiter.getRequestsPerSecond(), 1e-9);
+        assertEquals(1, limiter.getConcurrency());
+
+        // Each success increases the rate by a fixed step, and the concurrency by about one per round of requests.
+        request(limiter, HostRateLimiter.Outcome.SUCCESS, 10);
+        assertEquals(12, limiter.getRequestsPerSecond(), 1e-9);
+        assertEquals(2, limiter.getConcurrency());
+
+        // Failures unrelated to the load of the host change nothing.
+        request(limiter, HostRateLimiter.Outcome.FAILED, 10);
+        assertEquals(12, limiter.getRequestsPerSecond(), 1e-9);
+        assertEquals(2, limiter.getConcurrency());
+
+        // A host signalling overload halves both limits.
+        request(limiter, HostRateLimiter.Outcome.THROTTLED, 10);
+        assertEquals(6, limiter.getRequestsPerSecond(), 1e-9);
+        assertEquals(1, limiter.getConcurrency());
+
+        // A slow response does not allow an increase.
+        request(limiter, HostRateLimiter.Outcome.SUCCESS, 10);
+        assertEquals(8, limiter.getRequestsPerSecond(), 1e-9);
+        request(limiter, HostRateLimiter.Outcome.SUCCESS, 1000);
+        assertEquals(8, limiter.getRequestsPerSecond(), 1e-9);
+
+        // The limits never exceed their bounds.
+        for(int i = 0; i < 30; i++) {
+            request(limiter, HostRateLimiter.Outcome.SUCCESS, 10);
+        }
+        assertEquals(40, limiter.getRequestsPerSecond(), 1e-9);
+        assertEquals(3, limiter.getConcurrency());
+    }
+
+    @Test
+    public void testConcurrencyCap() throws InterruptedException {
+        HostRateLimiter limiter = new HostRateLimiter("test", new RateLimit(40, 2));
+        while(limiter.getConcurrency() < 2) {
+            request(limiter, HostRateLimiter.Outcome.SUCCESS, 10);
+        }
+
+        limiter.acquire();
+        limiter.acquire();
+
+        // A third request must wait for one of the requests in progress to complete.
+        Thread third = new Thread(() -> {
+            try {
+                limiter.acquire();
+                limiter.release(HostRateLimiter.Outcome.SUCCESS, 10);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        third.start();
+        third.join(300);
+        assertTrue(third.isAlive(), "Request must wait while the concurrency limit is reached.");
+
+        limiter.release(HostRateLimiter.Outcome.SUCCESS, 10);
+        third.join(1000);
+        assertFalse(third.isAlive(), "Request must start once another one completed.");
+        limiter.release(HostRateLimiter.Outcome.SUCCESS, 10);
+    }
+}
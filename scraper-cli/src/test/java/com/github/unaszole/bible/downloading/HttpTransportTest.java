@@ -0,0 +1,222 @@
+package com.github.unaszole.bible.downloading;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpTransportTest {
+
+    private static final String PAGE = "<html><body><p>Au commencement, Dieu créa le ciel et la terre.</p></body></html>";
+    private static final AtomicInteger DOWN_REQUESTS = new AtomicInteger();
+
+    private static HttpServer startServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        server.createContext("/page", exchange -> {
+            byte[] body = PAGE.getBytes(StandardCharsets.UTF_8);
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if(acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try(GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(body);
+                }
+                body = compressed.toByteArray();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+
+        server.createContext("/echo", exchange -> {
+            byte[] body = (exchange.getRequestMethod() + " "
+                    + exchange.getRequestHeaders().getFirst("User-Agent") + " "
+                    + new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)
+            ).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+
+        server.createContext("/versioned", exchange -> {
+            if("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = PAGE.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+
+        AtomicInteger flakyRequests = new AtomicInteger();
+        server.createContext("/flaky", exchange -> {
+            if(flakyRequests.incrementAndGet() % 3 != 0) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = PAGE.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+
+        server.createContext("/down", exchange -> {
+            DOWN_REQUESTS.incrementAndGet();
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+
+        server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+
+        server.createContext("/stalled", exchange -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+
+        server.start();
+        return server;
+    }
+
+    private static String read(InputStream is) throws IOException {
+        try(is) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testTransport() throws IOException {
+        HttpServer server = startServer();
+        try {
+            URI base = URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+            HttpTransport transport = new HttpTransport(Duration.ofSeconds(5), Duration.ofSeconds(1));
+
+            // Compressed responses are decoded transparently.
+            assertEquals(PAGE, read(transport.send(base.resolve("/page"), "GET", Map.of(), null)));
+
+            // Headers and body are sent to the server.
+            assertEquals("POST TestAgent a=b", read(transport.send(base.resolve("/echo"), "POST",
+                    Map.of("User-Agent", "TestAgent"), "a=b")));
+
+            // Error statuses are reported with their code.
+            HttpStatusException notFound = null;
+            try {
+                transport.send(base.resolve("/missing"), "GET", Map.of(), null);
+            } catch (HttpStatusException e) {
+                notFound = e;
+            }
+            assertNotNull(notFound);
+            assertEquals(404, notFound.statusCode);
+
+            // A server that does not respond does not block the caller past the read timeout.
+            long start = System.nanoTime();
+            boolean timedOut = false;
+            try {
+                transport.send(base.resolve("/stalled"), "GET", Map.of(), null);
+            } catch (IOException e) {
+                timedOut = true;
+            }
+            assertTrue(timedOut, "Stalled request must time out.");
+            assertTrue(System.nanoTime() - start < Duration.ofSeconds(4).toNanos(), "Timeout must be honoured.");
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testConditionalRequest() throws IOException {
+        HttpServer server = startServer();
+        try {
+            URI base = URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+            HttpTransport transport = new HttpTransport(Duration.ofSeconds(5), Duration.ofSeconds(5));
+
+            // Without validators, the page is fetched along with its entity tag.
+            Optional<FetchedFile> fetched = transport.sendIfModified(base.resolve("/versioned"), "GET", Map.of(), null,
+                    null, null);
+            assertTrue(fetched.isPresent());
+            assertEquals("\"v1\"", fetched.get().etag);
+            assertEquals(PAGE, read(fetched.get().stream));
+
+            // With a current entity tag, the server answers that the page is not modified.
+            assertFalse(transport.sendIfModified(base.resolve("/versioned"), "GET", Map.of(), null,
+                    "\"v1\"", null).isPresent());
+
+            // With an outdated entity tag, the page is fetched again.
+            assertTrue(transport.sendIfModified(base.resolve("/versioned"), "GET", Map.of(), null,
+                    "\"v0\"", null).isPresent());
+
+            // Other methods are never conditional.
+            assertTrue(transport.sendIfModified(base.resolve("/versioned"), "POST", Map.of(), "a=b",
+                    "\"v1\"", null).isPresent());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRetries() throws IOException {
+        HttpServer server = startServer();
+        try {
+            URI base = URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+            Duration cooldown = Duration.ofMillis(500);
+            HttpTransport transport = new HttpTransport(Duration.ofSeconds(5), Duration.ofSeconds(5),
+                    new RetryPolicy(4, Duration.ofMillis(10), Duration.ofSeconds(1), 2, cooldown));
+
+            // Transient failures are retried until the request succeeds.
+            assertEquals(PAGE, read(transport.send(base.resolve("/flaky"), "GET", Map.of(), null)));
+
+            // Requests which may have been processed are not retried.
+            int downRequests = DOWN_REQUESTS.get();
+            assertThrows(HttpStatusException.class, () -> transport.send(base.resolve("/down"), "POST", Map.of(), "a=b"));
+            assertEquals(downRequests + 1, DOWN_REQUESTS.get());
+
+            // A request failing after all its attempts counts as a single failure of the host.
+            assertThrows(HttpStatusException.class, () -> transport.send(base.resolve("/down"), "GET", Map.of(), null));
+            assertEquals(downRequests + 5, DOWN_REQUESTS.get());
+
+            // Once the host failed repeatedly, requests wait for the suspension to be over, instead of failing.
+            long start = System.nanoTime();
+            assertEquals(PAGE, read(transport.send(base.resolve("/page"), "GET", Map.of(), null)));
+            assertTrue(System.nanoTime() - start >= cooldown.toNanos() / 2, "Request must wait for the suspension.");
+
+            // The successful trial request lifted the suspension.
+            start = System.nanoTime();
+            assertEquals(PAGE, read(transport.send(base.resolve("/page"), "GET", Map.of(), null)));
+            assertTrue(System.nanoTime() - start < cooldown.toNanos() / 2, "Suspension must be lifted.");
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+}
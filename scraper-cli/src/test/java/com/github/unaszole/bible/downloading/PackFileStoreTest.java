@@ -0,0 +1,95 @@
+package com.github.unaszole.bible.downloading;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackFileStoreTest {
+
+    private static void store(CacheStore store, String key, String contents) throws IOException {
+        store.store(key, new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String read(CacheStore store, String key) throws IOException {
+        try(InputStream is = store.open(key)) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static long countPacks(Path directory) throws IOException {
+        try(Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".pack")).count();
+        }
+    }
+
+    @Test
+    public void testStoreAndCompact() throws IOException {
+        Path directory = Files.createTempDirectory("packStore");
+        try(PackFileStore store = new PackFileStore(directory, 16)) {
+            store(store, "a", "first a");
+            assertEquals("first a", read(store, "a"));
+
+            // Entries appended after the pack was mapped are still readable.
+            store(store, "b", "b");
+            assertEquals("b", read(store, "b"));
+
+            // Storing an entry again replaces it, even across packs.
+            store(store, "a", "second a, in another pack");
+            assertEquals("second a, in another pack", read(store, "a"));
+            assertEquals(2, countPacks(directory));
+
+            // Compacting reclaims the replaced entry, and keeps the current ones readable.
+            assertEquals("first a".length(), store.compact());
+            assertEquals(0, store.compact());
+            assertEquals("second a, in another pack", read(store, "a"));
+            assertEquals("b", read(store, "b"));
+            assertEquals(2, countPacks(directory));
+
+            store(store, "c", "c");
+        }
+
+        try(PackFileStore store = new PackFileStore(directory, 16)) {
+            assertEquals("second a, in another pack", read(store, "a"));
+            assertEquals("b", read(store, "b"));
+            assertEquals("c", read(store, "c"));
+
+            store.delete("b");
+            assertFalse(store.contains("b"));
+        }
+
+        // Deletions are recorded too.
+        try(PackFileStore store = new PackFileStore(directory, 16)) {
+            assertFalse(store.contains("b"));
+            assertEquals("c", read(store, "c"));
+            assertEquals("b".length(), store.compact());
+        }
+    }
+
+    @Test
+    public void testInterruptedCompaction() throws IOException {
+        Path directory = Files.createTempDirectory("packStore");
+        try(PackFileStore store = new PackFileStore(directory, 16)) {
+            store(store, "a", "first a");
+        }
+
+        // A compaction interrupted before replacing the index leaves a pack which no entry refers to.
+        Files.write(directory.resolve("00001.pack"), "stale contents".getBytes(StandardCharsets.UTF_8));
+
+        try(PackFileStore store = new PackFileStore(directory, 16)) {
+            assertEquals(1, countPacks(directory));
+
+            // Rolling over to the next pack does not append after the stale contents.
+            store(store, "b", "b, in another pack");
+            assertEquals("b, in another pack", read(store, "b"));
+            assertEquals("b, in another pack".length(), Files.size(directory.resolve("00001.pack")));
+        }
+    }
+}
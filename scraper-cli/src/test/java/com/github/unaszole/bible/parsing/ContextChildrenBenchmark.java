@@ -0,0 +1,83 @@
+package com.github.unaszole.bible.parsing;
+
+import com.github.unaszole.bible.datamodel.contexttypes.BibleContainers;
+import com.github.unaszole.bible.scraping.ScrapingUtils;
+import org.crosswire.jsword.versification.BibleBook;
+
+import java.util.Arrays;
+
+/**
+ * Measures the time taken to add verses to a chapter, while querying what the parser needs before each verse : the
+ * allowed types of the next child, the last verse and whether the chapter is complete. Children are tracked
+ * incrementally, so the time per verse should not depend on the size of the chapter.
+ * <p>
+ * This is not run with the tests : run its main method from the test classpath, with the chapter sizes to measure as
+ * arguments (176, 1000 and 10000 verses by default).
+ */
+public class ContextChildrenBenchmark {
+
+    private static final int NB_WARMUP_RUNS = 5;
+    private static final int NB_RUNS = 10;
+    /**
+     * Minimal number of verses added in each run : small chapters are filled several times.
+     */
+    private static final int MIN_VERSES_PER_RUN = 200000;
+
+    private static Context[] getVerses(int nbVerses) {
+        Context[] verses = new Context[nbVerses];
+        for(int verse = 1; verse <= nbVerses; verse++) {
+            verses[verse - 1] = new Context(ScrapingUtils.forVerse(BibleBook.PS, 119, verse), String.valueOf(verse));
+        }
+        return verses;
+    }
+
+    /**
+     *
+     * @param verses The verses to add.
+     * @return A value depending on all queries, so that they are not optimised away.
+     */
+    private static long fillChapter(Context[] verses) {
+        Context chapter = new Context(ScrapingUtils.forChapter(BibleBook.PS, 119), "119");
+        long checksum = 0;
+        for(Context verse: verses) {
+            checksum += chapter.getAllowedTypesForNextChild().size();
+            checksum += chapter.getLastChildOfTypeMeta(BibleContainers.VERSE) != null ? 1 : 0;
+            checksum += chapter.isIncomplete() ? 1 : 0;
+            chapter = chapter.addChild(verse);
+        }
+        return checksum;
+    }
+
+    /**
+     *
+     * @return The best time per verse over several runs, in nanoseconds.
+     */
+    private static double measure(int nbVerses) {
+        Context[] verses = getVerses(nbVerses);
+        int nbChapters = Math.max(1, MIN_VERSES_PER_RUN / nbVerses);
+        long checksum = 0;
+        long best = Long.MAX_VALUE;
+        for(int run = 0; run < NB_WARMUP_RUNS + NB_RUNS; run++) {
+            long start = System.nanoTime();
+            for(int i = 0; i < nbChapters; i++) {
+                checksum += fillChapter(verses);
+            }
+            if(run >= NB_WARMUP_RUNS) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        if(checksum == 0) {
+            throw new IllegalStateException("Nothing was measured");
+        }
+        return (double) best / nbChapters / nbVerses;
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[] { 176, 1000, 10000 };
+        System.out.println("verses\tus per verse");
+        for(int nbVerses: sizes) {
+            System.out.printf("%d\t%.3f%n", nbVerses, measure(nbVerses) / 1000);
+        }
+    }
+}
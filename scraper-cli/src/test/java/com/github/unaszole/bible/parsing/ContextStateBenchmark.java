@@ -0,0 +1,273 @@
+package com.github.unaszole.bible.parsing;
+
+import com.github.unaszole.bible.datamodel.ContextMetadata;
+import com.github.unaszole.bible.datamodel.ContextType;
+import com.github.unaszole.bible.datamodel.contexttypes.BibleContainers;
+import com.github.unaszole.bible.datamodel.contexttypes.FlatText;
+import com.github.unaszole.bible.scraping.ScrapingUtils;
+import com.github.unaszole.bible.stream.ContextEvent;
+import org.crosswire.jsword.versification.BibleBook;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Compares two implementations of the tentative states explored by the parser for each position : the current one,
+ * which shares a {@link PersistentStack} between states, and the previous one, which copied the context stack and the
+ * events into new lists on each step.
+ * <p>
+ * Both run the same search as {@link Parser#parsePosition(Object)} (without the profile and the known misses) over a
+ * chapter, with a minimal core reading a verse then two texts for each verse. The texts are reached through implicit
+ * contexts, so that several tentative states are built and discarded for each position.
+ * <p>
+ * This is not run with the tests : run its main method from the test classpath, with the chapter sizes to measure as
+ * arguments (176, 1000 and 10000 verses by default).
+ */
+public class ContextStateBenchmark {
+
+    private static final int NB_WARMUP_RUNS = 5;
+    private static final int NB_RUNS = 10;
+    /**
+     * Minimal number of verses parsed in each run : small chapters are parsed several times.
+     */
+    private static final int MIN_VERSES_PER_RUN = 100000;
+
+    private interface State<S extends State<S>> {
+        List<Context> getContextStack();
+        List<ContextEvent> getEvents();
+        boolean isPositionExhausted();
+        S openChildContext(Context context);
+        boolean canCloseCurrentContext();
+        S closeCurrentContext();
+        S notifyPositionExhausted();
+    }
+
+    /**
+     * The previous implementation of the parser states, copying the stack and events on each step.
+     */
+    private static class CopyingState implements State<CopyingState> {
+        private final List<Context> contextStack;
+        private final List<ContextEvent> events;
+        private final boolean positionExhausted;
+
+        private CopyingState(List<Context> contextStack, List<ContextEvent> events, boolean positionExhausted) {
+            this.contextStack = Collections.unmodifiableList(contextStack);
+            this.events = Collections.unmodifiableList(events);
+            this.positionExhausted = positionExhausted;
+        }
+
+        @Override
+        public List<Context> getContextStack() {
+            return contextStack;
+        }
+
+        @Override
+        public List<ContextEvent> getEvents() {
+            return events;
+        }
+
+        @Override
+        public boolean isPositionExhausted() {
+            return positionExhausted;
+        }
+
+        @Override
+        public CopyingState openChildContext(Context context) {
+            Context parentCtx = contextStack.get(0).addChild(context);
+            LinkedList<Context> newStack = new LinkedList<>(contextStack);
+            newStack.removeFirst();
+            newStack.addFirst(parentCtx);
+            newStack.addFirst(parentCtx.getLastChild().orElseThrow());
+            List<ContextEvent> newEvents = new LinkedList<>(events);
+            newEvents.add(new ContextEvent(ContextEvent.Type.OPEN, newStack.getFirst()));
+            return new CopyingState(newStack, newEvents, positionExhausted);
+        }
+
+        @Override
+        public boolean canCloseCurrentContext() {
+            return contextStack.size() > 1 && !contextStack.get(0).isIncomplete();
+        }
+
+        @Override
+        public CopyingState closeCurrentContext() {
+            List<Context> newStack = new LinkedList<>(contextStack);
+            Context closed = newStack.remove(0);
+            List<ContextEvent> newEvents = new LinkedList<>(events);
+            newEvents.add(new ContextEvent(ContextEvent.Type.CLOSE, closed));
+            return new CopyingState(newStack, newEvents, positionExhausted);
+        }
+
+        @Override
+        public CopyingState notifyPositionExhausted() {
+            return new CopyingState(contextStack, events, true);
+        }
+    }
+
+    /**
+     * The current implementation of the parser states, as in {@link Parser}.
+     */
+    private static class SharingState implements State<SharingState> {
+        private final PersistentStack<Context> contextStack;
+        private final PersistentStack<ContextEvent> events;
+        private final boolean positionExhausted;
+
+        private SharingState(PersistentStack<Context> contextStack, PersistentStack<ContextEvent> events,
+                             boolean positionExhausted) {
+            this.contextStack = contextStack;
+            this.events = events;
+            this.positionExhausted = positionExhausted;
+        }
+
+        @Override
+        public List<Context> getContextStack() {
+            return contextStack;
+        }
+
+        @Override
+        public List<ContextEvent> getEvents() {
+            return events.toListFromBottom();
+        }
+
+        @Override
+        public boolean isPositionExhausted() {
+            return positionExhausted;
+        }
+
+        @Override
+        public SharingState openChildContext(Context context) {
+            Context parentCtx = contextStack.get(0).addChild(context);
+            Context childCtx = parentCtx.getLastChild().orElseThrow();
+            return new SharingState(
+                    contextStack.pop().push(parentCtx).push(childCtx),
+                    events.push(new ContextEvent(ContextEvent.Type.OPEN, childCtx)),
+                    positionExhausted
+            );
+        }
+
+        @Override
+        public boolean canCloseCurrentContext() {
+            return contextStack.size() > 1 && !contextStack.get(0).isIncomplete();
+        }
+
+        @Override
+        public SharingState closeCurrentContext() {
+            return new SharingState(
+                    contextStack.pop(),
+                    events.push(new ContextEvent(ContextEvent.Type.CLOSE, contextStack.get(0))),
+                    positionExhausted
+            );
+        }
+
+        @Override
+        public SharingState notifyPositionExhausted() {
+            return new SharingState(contextStack, events, true);
+        }
+    }
+
+    /**
+     * Reads a verse at each position multiple of 3, and a text at the other positions.
+     */
+    private static Context readContext(ContextType type, int position) {
+        if(position % 3 == 0 && type == BibleContainers.VERSE) {
+            int verse = position / 3 + 1;
+            return new Context(ScrapingUtils.forVerse(BibleBook.PS, 119, verse), String.valueOf(verse));
+        }
+        if(position % 3 != 0 && type == FlatText.TEXT) {
+            return new Context(new ContextMetadata(FlatText.TEXT), "Verse text");
+        }
+        return null;
+    }
+
+    private static <S extends State<S>> S parseDescendantContext(S baseState, int position) {
+        Context baseContext = baseState.getContextStack().get(0);
+        for(ContextType eltType: baseContext.getAllowedTypesForNextChild()) {
+            ContextMetadata previousOfType = baseContext.getLastChildOfTypeMeta(eltType);
+            Context parsedContext = readContext(eltType, position);
+            if(parsedContext != null) {
+                // Each position holds a single context.
+                return baseState.openChildContext(parsedContext).notifyPositionExhausted();
+            }
+
+            Optional<ContextMetadata> implicitMeta = eltType.idType().fields == null
+                    ? Optional.of(new ContextMetadata(eltType))
+                    : eltType.idType().getNewId(previousOfType, baseState.getContextStack())
+                    .map(nextId -> new ContextMetadata(eltType, nextId));
+            if(implicitMeta.isPresent() && eltType.implicitValue().implicitAllowed) {
+                Context newContext = new Context(implicitMeta.get(), eltType.implicitValue().implicitValue);
+                S reachedState = parseDescendantContext(baseState.openChildContext(newContext), position);
+                if(reachedState != null) {
+                    return reachedState;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static <S extends State<S>> S parsePosition(S initialState, int position) {
+        S committedState = initialState;
+        while(!committedState.isPositionExhausted()) {
+            S tentativeState = committedState;
+            S nextState;
+            while((nextState = parseDescendantContext(tentativeState, position)) == null
+                    && tentativeState.canCloseCurrentContext()) {
+                tentativeState = tentativeState.closeCurrentContext();
+            }
+            committedState = nextState != null ? nextState : committedState.notifyPositionExhausted();
+        }
+        return committedState;
+    }
+
+    /**
+     *
+     * @param newState Builds the initial state of a position from the context stack, starting from the top.
+     * @return The number of events, so that the parsing is not optimised away.
+     */
+    private static <S extends State<S>> long parseChapter(int nbVerses, Function<List<Context>, S> newState) {
+        List<Context> contextStack = List.of(new Context(ScrapingUtils.forChapter(BibleBook.PS, 119), "119"));
+        long nbEvents = 0;
+        for(int position = 0; position < 3 * nbVerses; position++) {
+            S state = parsePosition(newState.apply(contextStack), position);
+            nbEvents += state.getEvents().size();
+            contextStack = List.copyOf(state.getContextStack());
+        }
+        return nbEvents;
+    }
+
+    /**
+     *
+     * @return The best time per verse over several runs, in nanoseconds.
+     */
+    private static <S extends State<S>> double measure(int nbVerses, Function<List<Context>, S> newState) {
+        int nbChapters = Math.max(1, MIN_VERSES_PER_RUN / nbVerses);
+        long nbEvents = 0;
+        long best = Long.MAX_VALUE;
+        for(int run = 0; run < NB_WARMUP_RUNS + NB_RUNS; run++) {
+            long start = System.nanoTime();
+            for(int i = 0; i < nbChapters; i++) {
+                nbEvents += parseChapter(nbVerses, newState);
+            }
+            if(run >= NB_WARMUP_RUNS) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        if(nbEvents == 0) {
+            throw new IllegalStateException("Nothing was parsed");
+        }
+        return (double) best / nbChapters / nbVerses;
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[] { 176, 1000, 10000 };
+        System.out.println("verses\tcopying (us per verse)\tsharing (us per verse)");
+        for(int nbVerses: sizes) {
+            double copying = measure(nbVerses, stack -> new CopyingState(new LinkedList<>(stack), new LinkedList<>(), false));
+            double sharing = measure(nbVerses, stack -> new SharingState(PersistentStack.of(stack), PersistentStack.empty(), false));
+            System.out.printf("%d\t%.3f\t%.3f%n", nbVerses, copying / 1000, sharing / 1000);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.github.unaszole.bible.parsing;
+
+import com.github.unaszole.bible.datamodel.ContextMetadata;
+import com.github.unaszole.bible.datamodel.ContextType;
+import com.github.unaszole.bible.datamodel.contexttypes.BibleContainers;
+import com.github.unaszole.bible.datamodel.contexttypes.FlatText;
+import com.github.unaszole.bible.scraping.ScrapingUtils;
+import com.github.unaszole.bible.stream.ContextEvent;
+import org.crosswire.jsword.versification.BibleBook;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParserTest {
+
+    private static final List<BibleBook> BOOKS = List.of(BibleBook.GEN, BibleBook.EXOD, BibleBook.LEV, BibleBook.NUM, BibleBook.DEUT);
+    private static final int NB_CHAPTERS = 150;
+    private static final int NB_VERSES = 40;
+
+    /**
+     * Positions of a synthetic bible : each position is an array of book index, chapter, verse and 0 for the verse
+     * number or 1 for the verse text.
+     * @param firstBook Index of the first book, included.
+     * @param lastBook Index of the last book, excluded.
+     * @param nbChapters Number of chapters of each book.
+     */
+    private static Iterator<int[]> getSyntheticBible(int firstBook, int lastBook, int nbChapters) {
+        return new Iterator<>() {
+            private int[] next = new int[] { firstBook, 1, 1, 0 };
+
+            @Override
+            public boolean hasNext() {
+                return next[0] < lastBook;
+            }
+
+            @Override
+            public int[] next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int[] current = next.clone();
+                if(next[3] == 0) {
+                    next[3] = 1;
+                }
+                else {
+                    next[3] = 0;
+                    if(++next[2] > NB_VERSES) {
+                        next[2] = 1;
+                        if(++next[1] > nbChapters) {
+                            next[1] = 1;
+                            next[0]++;
+                        }
+                    }
+                }
+                return current;
+            }
+        };
+    }
+
+    private static class SyntheticBibleParser implements ParserCore<int[]> {
+        private static boolean hasAncestor(List<Context> ancestorStack, ContextType type, Object value) {
+            return ancestorStack.stream().anyMatch(c -> c.metadata.type == type && value.equals(c.value));
+        }
+
+        @Override
+        public PositionParseOutput readContext(List<Context> ancestorStack, ContextType type,
+                                               ContextMetadata previousOfType, int[] position) {
+            BibleBook book = BOOKS.get(position[0]);
+            if(type == BibleContainers.BOOK && position[1] == 1 && position[2] == 1 && position[3] == 0) {
+                return new PositionParseOutput(new Context(ScrapingUtils.forBook(book), book.getOSIS()), false);
+            }
+            if(!hasAncestor(ancestorStack, BibleContainers.BOOK, book)) {
+                return new PositionParseOutput(null);
+            }
+            if(type == BibleContainers.CHAPTER && position[2] == 1 && position[3] == 0) {
+                return new PositionParseOutput(new Context(ScrapingUtils.forChapter(book, position[1]),
+                        String.valueOf(position[1])), false);
+            }
+            if(!hasAncestor(ancestorStack, BibleContainers.CHAPTER, String.valueOf(position[1]))) {
+                return new PositionParseOutput(null);
+            }
+            if(type == BibleContainers.VERSE && position[3] == 0) {
+                return new PositionParseOutput(new Context(ScrapingUtils.forVerse(book, position[1], position[2]),
+                        String.valueOf(position[2])));
+            }
+            if(type == FlatText.TEXT && position[3] == 1) {
+                return new PositionParseOutput(new Context(new ContextMetadata(FlatText.TEXT), "Verse text"));
+            }
+            return new PositionParseOutput(null);
+        }
+    }
+
+    private static boolean isCollected(WeakReference<?> ref) {
+        for(int i = 0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+        }
+        return ref.get() == null;
+    }
+
+    @Test
+    public void testStreamingMemory() {
+        Context root = new Context(ScrapingUtils.forBible());
+        Iterator<ContextEvent> events = new Parser.TerminalParser<>(new SyntheticBibleParser(),
+                getSyntheticBible(0, BOOKS.size(), NB_CHAPTERS), root)
+                .asContextStream().getStream().iterator();
+
+        WeakReference<ContextMetadata> firstBook = null;
+        WeakReference<ContextMetadata> firstVerse = null;
+        int nbBooks = 0;
+        int nbVerses = 0;
+        while(events.hasNext()) {
+            ContextEvent event = events.next();
+            if(event.type != ContextEvent.Type.OPEN) {
+                continue;
+            }
+            if(event.metadata.type == BibleContainers.BOOK) {
+                if(firstBook == null) {
+                    firstBook = new WeakReference<>(event.metadata);
+                }
+                nbBooks++;
+            }
+            else if(event.metadata.type == BibleContainers.VERSE) {
+                if(firstVerse == null) {
+                    firstVerse = new WeakReference<>(event.metadata);
+                }
+                else if(nbVerses == NB_VERSES / 2) {
+                    // The first verse of the chapter is closed, and no longer referenced by its open parent.
+                    assertTrue(isCollected(firstVerse), "Closed verse must not be retained by its chapter.");
+                }
+                nbVerses++;
+            }
+        }
+
+        assertEquals(BOOKS.size(), nbBooks);
+        assertEquals(BOOKS.size() * NB_CHAPTERS * NB_VERSES, nbVerses);
+        assertTrue(isCollected(firstBook), "Closed book must not be retained by the bible.");
+    }
+
+    private static List<String> parseBook(int bookIndex) {
+        BibleBook book = BOOKS.get(bookIndex);
+        Context root = new Context(ScrapingUtils.forBook(book), book.getOSIS());
+        return new Parser.TerminalParser<>(new SyntheticBibleParser(), getSyntheticBible(bookIndex, bookIndex + 1, 10), root)
+                .asContextStream().getStream()
+                .map(ContextEvent::toString)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        int nbPages = 40;
+        List<List<String>> sequentialEvents = new ArrayList<>();
+        for(int page = 0; page < nbPages; page++) {
+            sequentialEvents.add(parseBook(page % BOOKS.size()));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<String>>> parallelEvents = new ArrayList<>();
+            for(int page = 0; page < nbPages; page++) {
+                final int bookIndex = page % BOOKS.size();
+                parallelEvents.add(executor.submit(() -> parseBook(bookIndex)));
+            }
+
+            for(int page = 0; page < nbPages; page++) {
+                assertEquals(sequentialEvents.get(page), parallelEvents.get(page).get(),
+                        "Page " + page + " must be parsed the same way in parallel.");
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> describeStack(Deque<Context> stack) {
+        return stack.stream().map(Context::describeParsingState).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testReplay() {
+        BibleBook book = BOOKS.get(0);
+        Deque<Context> parsedStack = new ArrayDeque<>(List.of(new Context(ScrapingUtils.forBook(book), book.getOSIS())));
+        Parser<int[]> parser = new Parser<>(new SyntheticBibleParser(), getSyntheticBible(0, 1, 3), parsedStack);
+        List<ContextEvent> events = new ArrayList<>();
+        while(parser.hasNext()) {
+            events.addAll(parser.next());
+        }
+
+        Deque<Context> replayedStack = new ArrayDeque<>(List.of(new Context(ScrapingUtils.forBook(book), book.getOSIS())));
+        Parser.ReplayParser replay = new Parser.ReplayParser(events.iterator(), replayedStack);
+        List<ContextEvent> replayedEvents = new ArrayList<>();
+        while(replay.hasNext()) {
+            replayedEvents.addAll(replay.next());
+        }
+
+        assertEquals(events.stream().map(ContextEvent::toString).collect(Collectors.toList()),
+                replayedEvents.stream().map(ContextEvent::toString).collect(Collectors.toList()));
+        assertEquals(describeStack(parsedStack), describeStack(replayedStack),
+                "Replay must leave the context stack in the same state as the parsing.");
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.unaszole.bible.scraping;
+
+import com.github.unaszole.bible.datamodel.ContextMetadata;
+import com.github.unaszole.bible.datamodel.contexttypes.BibleContainers;
+import com.github.unaszole.bible.parsing.Context;
+import com.github.unaszole.bible.stream.ContextEvent;
+import com.github.unaszole.bible.stream.ContextStream;
+import com.github.unaszole.bible.stream.StreamUtils;
+import org.crosswire.jsword.versification.BibleBook;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageIndexTest {
+
+    private static final BibleBook BOOK = BibleBook.GEN;
+    private static final List<String> PAGES = List.of("page1.html", "page2.html", "page3.html");
+
+    private static ContextEvent open(Context context) {
+        return new ContextEvent(ContextEvent.Type.OPEN, context);
+    }
+
+    private static ContextEvent close(Context context) {
+        return new ContextEvent(ContextEvent.Type.CLOSE, context);
+    }
+
+    private static Context chapter(int chapter) {
+        return new Context(ScrapingUtils.forChapter(BOOK, chapter), String.valueOf(chapter));
+    }
+
+    /**
+     * A book of 4 chapters spread over 3 pages : chapter 2 starts on the first page and ends on the second one.
+     */
+    private static ContextStream.Single getBook(PageIndex.Recorder recorder) {
+        Context book = new Context(ScrapingUtils.forBook(BOOK), BOOK.getOSIS());
+        List<List<ContextEvent>> pages = List.of(
+                List.of(open(book), open(chapter(1)), close(chapter(1)), open(chapter(2))),
+                List.of(close(chapter(2)), open(chapter(3)), close(chapter(3))),
+                List.of(open(chapter(4)), close(chapter(4)), close(book))
+        );
+        List<Stream<ContextEvent>> pageStreams = new ArrayList<>();
+        for(int i = 0; i < pages.size(); i++) {
+            final int pageNb = i;
+            pageStreams.add(StreamUtils.deferredStream(() -> {
+                recorder.enterPage(pageNb);
+                return pages.get(pageNb).stream();
+            }));
+        }
+        return recorder.record(new ContextStream.Single(book.metadata, StreamUtils.concatStreams(pageStreams)));
+    }
+
+    private static String getPages(PageIndex index, int chapter) {
+        return index.getPages(ScrapingUtils.forChapter(BOOK, chapter)).map(PageIndex.Range::toString).orElse(null);
+    }
+
+    @Test
+    public void testRecordAndReload() throws Exception {
+        Path file = Files.createTempDirectory("pageIndex").resolve("GEN.properties");
+        PageIndex index = new PageIndex(file, PAGES, BibleContainers.CHAPTER);
+        assertTrue(index.getPages(ScrapingUtils.forChapter(BOOK, 1)).isEmpty());
+
+        // A partially consumed book is not indexed.
+        getBook(index.newRecorder()).extractStream(ScrapingUtils.forChapter(BOOK, 1)).getStream().count();
+        assertFalse(Files.exists(file));
+
+        List<ContextMetadata> opened = getBook(index.newRecorder()).getStream()
+                .filter(e -> e.type == ContextEvent.Type.OPEN)
+                .map(e -> e.metadata)
+                .collect(Collectors.toList());
+        assertEquals(5, opened.size());
+
+        PageIndex reloaded = new PageIndex(file, PAGES, BibleContainers.CHAPTER);
+        assertEquals("0-0", getPages(reloaded, 1));
+        assertEquals("0-1", getPages(reloaded, 2));
+        assertEquals("1-1", getPages(reloaded, 3));
+        // Chapter 4 is opened on the third page, but the parser may have read ahead since the previous event.
+        assertEquals("1-2", getPages(reloaded, 4));
+        assertNull(getPages(reloaded, 5));
+
+        PageIndex otherPages = new PageIndex(file, List.of("page1.html", "page2.html"), BibleContainers.CHAPTER);
+        assertEquals(Optional.empty(), otherPages.getPages(ScrapingUtils.forChapter(BOOK, 1)));
+    }
+}
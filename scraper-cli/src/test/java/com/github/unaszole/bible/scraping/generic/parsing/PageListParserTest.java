@@ -0,0 +1,183 @@
+package com.github.unaszole.bible.scraping.generic.parsing;
+
+import com.github.unaszole.bible.datamodel.ContextMetadata;
+import com.github.unaszole.bible.datamodel.contexttypes.BibleContainers;
+import com.github.unaszole.bible.datamodel.contexttypes.FlatText;
+import com.github.unaszole.bible.downloading.CacheStore;
+import com.github.unaszole.bible.downloading.CachedDownloader;
+import com.github.unaszole.bible.downloading.HttpSourceFile;
+import com.github.unaszole.bible.downloading.HttpTransport;
+import com.github.unaszole.bible.downloading.LooseFileStore;
+import com.github.unaszole.bible.downloading.SourceFile;
+import com.github.unaszole.bible.monitor.ExecutionMonitor;
+import com.github.unaszole.bible.parsing.Context;
+import com.github.unaszole.bible.parsing.Parser;
+import com.github.unaszole.bible.parsing.ParserCore;
+import com.github.unaszole.bible.scraping.ScrapingUtils;
+import com.github.unaszole.bible.scraping.generic.data.PageData;
+import com.github.unaszole.bible.stream.ContextEvent;
+import com.sun.net.httpserver.HttpServer;
+import org.crosswire.jsword.versification.BibleBook;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageListParserTest {
+
+    private final AtomicInteger nbRequests = new AtomicInteger();
+
+    private HttpServer startServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        server.createContext("/missing", exchange -> {
+            nbRequests.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+
+        server.createContext("/forbidden", exchange -> {
+            nbRequests.incrementAndGet();
+            exchange.sendResponseHeaders(403, -1);
+            exchange.close();
+        });
+
+        server.start();
+        return server;
+    }
+
+    private static Deque<Context> getChapterStack() {
+        return new ArrayDeque<>(List.of(new Context(ScrapingUtils.forChapter(BibleBook.GEN, 1), "1")));
+    }
+
+    private static List<ContextEvent> getEvents(Parser<?> parser) {
+        List<ContextEvent> events = new ArrayList<>();
+        while(parser.hasNext()) {
+            events.addAll(parser.next());
+        }
+        return events;
+    }
+
+    /**
+     * Parses pages of lines : "v" followed by a number opens a verse, any other line is the text of the verse. Empty
+     * lines are reported as warnings.
+     */
+    private static class LineParser extends TextParser {
+        private final AtomicInteger nbParsedPages = new AtomicInteger();
+
+        @Override
+        public Parser<?> getLocalParser(InputStream input, Deque<Context> currentContextStack,
+                                        ContextualData contextualData) {
+            nbParsedPages.incrementAndGet();
+            List<String> lines = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)).lines()
+                    .collect(Collectors.toList());
+            return new Parser<>((ancestorStack, type, previousOfType, line) -> {
+                if(type == BibleContainers.VERSE && line.startsWith("v")) {
+                    int verse = Integer.parseInt(line.substring(1));
+                    return new ParserCore.PositionParseOutput(new Context(ScrapingUtils.forVerse(BibleBook.GEN, 1, verse),
+                            String.valueOf(verse)));
+                }
+                if(type == FlatText.TEXT && !line.startsWith("v")) {
+                    if(line.isEmpty()) {
+                        ExecutionMonitor.INSTANCE.message("Empty verse");
+                    }
+                    return new ParserCore.PositionParseOutput(new Context(new ContextMetadata(FlatText.TEXT), line));
+                }
+                return new ParserCore.PositionParseOutput(null);
+            }, lines.iterator(), currentContextStack);
+        }
+    }
+
+    private static List<String> parse(PageListParser pageListParser, PageData page, List<String> warnings) {
+        List<String> events = new ArrayList<>();
+        warnings.addAll(ExecutionMonitor.INSTANCE.captureMessages(() ->
+                getEvents(pageListParser.parseExternally(page, getChapterStack())).forEach(e -> events.add(e.toString()))
+        ));
+        return events;
+    }
+
+    @Test
+    public void testCachedParser() throws IOException {
+        CacheStore pages = new LooseFileStore(Files.createTempDirectory("pageListParser"));
+        CachedDownloader downloader = new CachedDownloader(pages);
+        ParsedPageCache parsedPageCache = new ParsedPageCache(
+                new LooseFileStore(Files.createTempDirectory("parsedPages")), downloader, "config");
+        LineParser lineParser = new LineParser();
+        PageListParser pageListParser = new PageListParser(Map.of("main", lineParser), downloader, Map.of(),
+                parsedPageCache);
+
+        // The page is already downloaded : nothing is requested.
+        SourceFile source = new HttpSourceFile(new URL("http://127.0.0.1:9/page"));
+        PageData page = new PageData(source, Map.of(), "main");
+        pages.store(source.getHash(), new ByteArrayInputStream("v1\nFirst\nv2\n\n".getBytes(StandardCharsets.UTF_8)));
+
+        // Not cached yet : the page is parsed.
+        List<String> warnings = new ArrayList<>();
+        List<String> parsedEvents = parse(pageListParser, page, warnings);
+        assertEquals(1, lineParser.nbParsedPages.get());
+        assertFalse(parsedEvents.isEmpty());
+        assertEquals(List.of("Empty verse"), warnings);
+
+        // Cached : the same events are replayed without parsing, along with the warnings.
+        warnings.clear();
+        assertEquals(parsedEvents, parse(pageListParser, page, warnings));
+        assertEquals(1, lineParser.nbParsedPages.get());
+        assertEquals(List.of("Empty verse"), warnings);
+
+        // Once the page changed, it is parsed again.
+        pages.store(source.getHash(), new ByteArrayInputStream("v1\nFirst\nv2\nSecond\n".getBytes(StandardCharsets.UTF_8)));
+        warnings.clear();
+        assertNotEquals(parsedEvents, parse(pageListParser, page, warnings));
+        assertEquals(2, lineParser.nbParsedPages.get());
+        assertEquals(List.of(), warnings);
+    }
+
+    @Test
+    public void testMissingPages() throws IOException {
+        HttpServer server = startServer();
+        try {
+            HttpTransport transport = new HttpTransport(Duration.ofSeconds(5), Duration.ofSeconds(5));
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            CachedDownloader downloader = new CachedDownloader(
+                    new LooseFileStore(Files.createTempDirectory("pageListParser")));
+            PageListParser pageListParser = new PageListParser(Map.of(), downloader, Map.of());
+
+            // A missing page is skipped : it has no contents.
+            PageData missing = new PageData(new HttpSourceFile(transport, new URL(base + "/missing"), null, "GET", null),
+                    Map.of(), "main");
+            assertEquals(List.of(), getEvents(pageListParser.parseExternally(missing, getChapterStack())));
+            assertEquals(1, nbRequests.get());
+
+            // It is known to be missing : it is skipped again without being requested.
+            assertEquals(List.of(), getEvents(pageListParser.parseExternally(missing, getChapterStack())));
+            assertEquals(1, nbRequests.get());
+
+            // Other errors are not mistaken for missing pages.
+            PageData forbidden = new PageData(new HttpSourceFile(transport, new URL(base + "/forbidden"), null, "GET", null),
+                    Map.of(), "main");
+            assertThrows(RuntimeException.class, () -> pageListParser.parseExternally(forbidden, getChapterStack()));
+            assertThrows(RuntimeException.class, () -> pageListParser.parseExternally(forbidden, getChapterStack()));
+            assertEquals(3, nbRequests.get());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.unaszole.bible.stream;
+
+import com.github.unaszole.bible.datamodel.ContextMetadata;
+import com.github.unaszole.bible.datamodel.contexttypes.BibleContainers;
+import com.github.unaszole.bible.datamodel.contexttypes.FlatText;
+import com.github.unaszole.bible.datamodel.contexttypes.StructureMarkers;
+import com.github.unaszole.bible.datamodel.valuetypes.Attachment;
+import com.github.unaszole.bible.parsing.Context;
+import com.github.unaszole.bible.scraping.ScrapingUtils;
+import org.crosswire.jsword.versification.BibleBook;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContextEventCodecTest {
+
+    private static class NamedAttachment implements Attachment {
+        private final String name;
+
+        private NamedAttachment(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return name.getBytes();
+        }
+    }
+
+    private static ContextStream.Single leaf(ContextMetadata metadata, Object value) {
+        Context context = new Context(metadata, value);
+        return new ContextStream.Single(metadata, Stream.of(
+                new ContextEvent(ContextEvent.Type.OPEN, context),
+                new ContextEvent(ContextEvent.Type.CLOSE, context)
+        ));
+    }
+
+    private static ContextStream.Single getBook() {
+        BibleBook book = BibleBook.MATT;
+        List<ContextStream.Single> chapters = new ArrayList<>();
+        for(int chapter = 1; chapter <= 3; chapter++) {
+            List<ContextStream.Single> contents = new ArrayList<>();
+            contents.add(leaf(new ContextMetadata(StructureMarkers.POETRY_LINE_START), -chapter));
+            for(int verse = 1; verse <= 4; verse++) {
+                contents.add(ContextStream.fromContents(
+                        new Context(ScrapingUtils.forVerse(book, chapter, verse), String.valueOf(verse)),
+                        List.of(leaf(new ContextMetadata(FlatText.TEXT), "Verset é " + chapter + ":" + verse))
+                ));
+            }
+            chapters.add(ContextStream.fromContents(
+                    new Context(ScrapingUtils.forChapter(book, chapter), String.valueOf(chapter)), contents));
+        }
+        chapters.add(leaf(new ContextMetadata(FlatText.LINK), URI.create("https://example.com/notes")));
+        chapters.add(leaf(new ContextMetadata(FlatText.FIGURE), new NamedAttachment("map.png")));
+        return ContextStream.fromContents(new Context(ScrapingUtils.forBook(book), book), chapters);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<ContextEvent> events = getBook().getStream().collect(Collectors.toList());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ContextEventCodec.write(events.stream(), out, Attachment::getName);
+        // Books are stored by name, which does not depend on the version of the library.
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains(BibleBook.MATT.getOSIS()));
+
+        ContextStream.Single read = ContextEventCodec.read(new ByteArrayInputStream(out.toByteArray()),
+                NamedAttachment::new);
+        List<ContextEvent> readEvents = read.getStream().collect(Collectors.toList());
+
+        assertEquals(ScrapingUtils.forBook(BibleBook.MATT), read.firstRoot);
+        assertEquals(events.size(), readEvents.size());
+        for(int i = 0; i < events.size(); i++) {
+            ContextEvent expected = events.get(i);
+            ContextEvent actual = readEvents.get(i);
+            assertEquals(expected.type, actual.type);
+            assertEquals(expected.metadata, actual.metadata);
+            if(expected.value instanceof Attachment) {
+                assertEquals(((Attachment) expected.value).getName(), ((Attachment) actual.value).getName());
+            }
+            else {
+                assertEquals(expected.value, actual.value);
+            }
+        }
+        assertEquals(BibleContainers.VERSE, readEvents.get(4).metadata.type);
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.unaszole.bible.stream;
+
+import com.github.unaszole.bible.parsing.Context;
+import com.github.unaszole.bible.scraping.ScrapingUtils;
+import org.crosswire.jsword.versification.BibleBook;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContextStreamTest {
+
+    private static final List<BibleBook> BOOKS = List.of(BibleBook.GEN, BibleBook.EXOD, BibleBook.LEV);
+    private static final int NB_CHAPTERS = 12;
+    private static final int NB_VERSES = 5;
+
+    /**
+     * A bible composed of books, themselves composed of chapters. Each chapter takes a different time to produce,
+     * so that chapters parsed ahead finish out of order.
+     */
+    private static ContextStream.Single getComposedBible() {
+        List<ContextStream.Single> books = new ArrayList<>();
+        for(BibleBook book: BOOKS) {
+            List<ContextStream.Single> chapters = new ArrayList<>();
+            for(int chapter = 1; chapter <= NB_CHAPTERS; chapter++) {
+                final int chapterNb = chapter;
+                List<ContextStream.Single> verses = new ArrayList<>();
+                for(int verse = 1; verse <= NB_VERSES; verse++) {
+                    verses.add(ContextStream.fromContents(new Context(ScrapingUtils.forVerse(book, chapter, verse),
+                            String.valueOf(verse)), List.of()));
+                }
+                ContextStream.Single chapterStream = ContextStream.fromContents(
+                        new Context(ScrapingUtils.forChapter(book, chapter), String.valueOf(chapter)), verses);
+                chapters.add(new ContextStream.Single(chapterStream.firstRoot, StreamUtils.deferredStream(() -> {
+                    try {
+                        Thread.sleep((NB_CHAPTERS - chapterNb) % 4);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return chapterStream.getStream();
+                })));
+            }
+            books.add(ContextStream.fromContents(new Context(ScrapingUtils.forBook(book), book.getOSIS()), chapters));
+        }
+        return ContextStream.fromContents(new Context(ScrapingUtils.forBible()), books);
+    }
+
+    private static List<String> getEvents(ContextStream<?> stream) {
+        return stream.getStream().map(ContextEvent::toString).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testParallelComposition() {
+        List<String> sequentialEvents = getEvents(getComposedBible());
+        assertEquals(2 + BOOKS.size() * 2 * (1 + NB_CHAPTERS * (1 + NB_VERSES)), sequentialEvents.size());
+
+        ContextStream.setParallelism(2);
+        try {
+            assertEquals(sequentialEvents, getEvents(getComposedBible()),
+                    "Nested composed streams must keep the same order when parsed ahead.");
+
+            ContextStream.Single failing = ContextStream.fromContents(new Context(ScrapingUtils.forBible()), List.of(
+                    getComposedBible(),
+                    new ContextStream.Single(ScrapingUtils.forBible(), StreamUtils.deferredStream(() -> {
+                        throw new IllegalStateException("Broken page");
+                    }))
+            ));
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> getEvents(failing));
+            assertEquals("Broken page", e.getMessage());
+        }
+        finally {
+            ContextStream.setParallelism(1);
+        }
+    }
+
+    @Test
+    public void testParallelCompositionStopped() throws InterruptedException {
+        AtomicInteger nbChaptersStarted = new AtomicInteger();
+        List<ContextStream.Single> books = new ArrayList<>();
+        for(BibleBook book: BOOKS) {
+            List<ContextStream.Single> chapters = new ArrayList<>();
+            for(int chapter = 1; chapter <= NB_CHAPTERS; chapter++) {
+                ContextStream.Single chapterStream = ContextStream.fromContents(
+                        new Context(ScrapingUtils.forChapter(book, chapter), String.valueOf(chapter)), List.of());
+                chapters.add(new ContextStream.Single(chapterStream.firstRoot, StreamUtils.deferredStream(() -> {
+                    nbChaptersStarted.incrementAndGet();
+                    return chapterStream.getStream();
+                })));
+            }
+            books.add(ContextStream.fromContents(new Context(ScrapingUtils.forBook(book), book.getOSIS()), chapters));
+        }
+        ContextStream.Single bible = ContextStream.fromContents(new Context(ScrapingUtils.forBible()), books);
+
+        ContextStream.setParallelism(2);
+        try {
+            try(Stream<ContextEvent> events = bible.getStream()) {
+                assertEquals(List.of("OPEN null", "OPEN GEN", "OPEN 1"), events.limit(3)
+                        .map(e -> e.type + " " + e.value).collect(Collectors.toList()));
+            }
+            Thread.sleep(100);
+            // Chapters are parsed ahead, rather than whole books, and they are not parsed anymore once stopped.
+            assertTrue(nbChaptersStarted.get() <= 2 * 2, nbChaptersStarted.get() + " chapters parsed ahead.");
+        }
+        finally {
+            ContextStream.setParallelism(1);
+        }
+    }
+
+    @Test
+    public void testEditedComposition() {
+        BibleBook book = BibleBook.GEN;
+        Context bookCtx = new Context(ScrapingUtils.forBook(book), book.getOSIS());
+        List<ContextStream.Single> chapters = new ArrayList<>();
+        for(int chapter = 1; chapter <= 3; chapter++) {
+            chapters.add(ContextStream.fromContents(
+                    new Context(ScrapingUtils.forChapter(book, chapter), String.valueOf(chapter)), List.of()));
+        }
+
+        // Inject the chapters in an edited book, then remove one of them from the composed stream.
+        ContextStream.Single bookStream = ContextStream.fromContents(bookCtx, List.of()).edit()
+                .inject(ContextStreamEditor.InjectionPosition.AT_END, bookCtx.metadata, chapters)
+                .process()
+                .edit()
+                .remove(ScrapingUtils.forChapter(book, 2))
+                .process();
+
+        assertEquals(List.of("OPEN GEN", "OPEN 1", "CLOSE 1", "OPEN 3", "CLOSE 3", "CLOSE GEN"),
+                bookStream.getStream().map(e -> e.type + " " + e.value).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testEditInAnyOrder() {
+        BibleBook book = BibleBook.GEN;
+        List<ContextStream.Single> chapters = new ArrayList<>();
+        for(int chapter = 1; chapter <= 3; chapter++) {
+            chapters.add(ContextStream.fromContents(
+                    new Context(ScrapingUtils.forChapter(book, chapter), String.valueOf(chapter)), List.of()));
+        }
+        ContextStream.Single bookStream = ContextStream.fromContents(
+                new Context(ScrapingUtils.forBook(book), book.getOSIS()), chapters);
+
+        // Actions listed against the order of the document.
+        ContextStreamEditor<ContextStream.Single> editor = bookStream.edit().inAnyOrder()
+                .remove(ScrapingUtils.forChapter(book, 3))
+                .updateContexts(ScrapingUtils.forChapter(book, 1), ScrapingUtils.forChapter(book, 1),
+                        new ContextStreamEditor.ContextUpdater().value((m, v) -> Optional.of("One")));
+
+        assertEquals(List.of("OPEN GEN", "OPEN One", "CLOSE One", "OPEN 2", "CLOSE 2", "CLOSE GEN"),
+                editor.process().getStream().map(e -> e.type + " " + e.value).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,233 @@
+package com.github.unaszole.bible.stream;
+
+import com.github.unaszole.bible.datamodel.ContextMetadata;
+import com.github.unaszole.bible.datamodel.contexttypes.FlatText;
+import com.github.unaszole.bible.parsing.Context;
+import com.github.unaszole.bible.scraping.ScrapingUtils;
+import org.crosswire.jsword.versification.BibleBook;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.BaseStream;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures the throughput of the stream utilities through a 4-level composition, built like the streams of a scraped
+ * bible : books of chapters, each chapter deferred and passed through an editor, made of pages whose parser outputs
+ * lists of events. The current {@link StreamUtils}, built on spliterators, is compared with the previous
+ * implementation, built on iterators.
+ * <p>
+ * This is not run with the tests : run its main method from the test classpath, optionally with the name of the
+ * implementation to measure (iterators or spliterators).
+ */
+public class StreamUtilsBenchmark {
+
+    private static final int NB_BOOKS = 10;
+    private static final int NB_CHAPTERS = 50;
+    private static final int NB_PAGES = 4;
+    private static final int NB_VERSES = 25;
+    private static final int NB_WARMUP_RUNS = 20;
+    private static final int NB_RUNS = 20;
+
+    /**
+     * The stream utilities used by the composition.
+     */
+    private interface Utils {
+        <T> Iterator<T> toFlatIterator(Iterator<List<T>> listIt);
+        <T> Stream<T> toStream(Iterator<T> it);
+        <T, R> Stream<R> lazyFlatMap(Stream<T> stream, Function<? super T, ? extends Stream<R>> mapper);
+        <T> Stream<T> concatStreams(List<Stream<T>> streams);
+        <E> Stream<E> deferredStream(Supplier<Stream<E>> streamSupplier);
+    }
+
+    private static class CurrentUtils implements Utils {
+        @Override
+        public <T> Iterator<T> toFlatIterator(Iterator<List<T>> listIt) {
+            return StreamUtils.toFlatIterator(listIt);
+        }
+
+        @Override
+        public <T> Stream<T> toStream(Iterator<T> it) {
+            return StreamUtils.toStream(it);
+        }
+
+        @Override
+        public <T, R> Stream<R> lazyFlatMap(Stream<T> stream, Function<? super T, ? extends Stream<R>> mapper) {
+            return StreamUtils.lazyFlatMap(stream, mapper);
+        }
+
+        @Override
+        public <T> Stream<T> concatStreams(List<Stream<T>> streams) {
+            return StreamUtils.concatStreams(streams);
+        }
+
+        @Override
+        public <E> Stream<E> deferredStream(Supplier<Stream<E>> streamSupplier) {
+            return StreamUtils.deferredStream(streamSupplier);
+        }
+    }
+
+    /**
+     * The previous implementation of the stream utilities.
+     */
+    private static class IteratorUtils implements Utils {
+        @Override
+        public <T> Iterator<T> toFlatIterator(Iterator<List<T>> listIt) {
+            final Deque<T> buffer = new LinkedList<>();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    while (buffer.isEmpty() && listIt.hasNext()) {
+                        buffer.addAll(listIt.next());
+                    }
+                    return !buffer.isEmpty();
+                }
+
+                @Override
+                public T next() {
+                    return buffer.removeFirst();
+                }
+            };
+        }
+
+        @Override
+        public <T> Stream<T> toStream(Iterator<T> it) {
+            return Stream.iterate((T)null, p -> {
+                if(it.hasNext()) {
+                    return it.next();
+                }
+                return null;
+            }).skip(1).takeWhile(Objects::nonNull);
+        }
+
+        @Override
+        public <T, R> Stream<R> lazyFlatMap(Stream<T> stream, Function<? super T, ? extends Stream<R>> mapper) {
+            return toStream(StreamUtils.concatIterators(
+                    stream.map(mapper)
+                            .map(BaseStream::iterator)
+                            .iterator()
+            ));
+        }
+
+        @Override
+        public <T> Stream<T> concatStreams(List<Stream<T>> streams) {
+            return lazyFlatMap(streams.stream(), s -> s);
+        }
+
+        @Override
+        public <E> Stream<E> deferredStream(Supplier<Stream<E>> streamSupplier) {
+            return toStream(StreamUtils.deferredIterator(() -> streamSupplier.get().iterator()));
+        }
+    }
+
+    /**
+     * The events output by the parser of a page : one list for each verse.
+     */
+    private static final List<List<ContextEvent>> PAGE = getPage();
+
+    private static List<List<ContextEvent>> getPage() {
+        List<List<ContextEvent>> page = new ArrayList<>();
+        for(int verse = 1; verse <= NB_VERSES; verse++) {
+            Context verseCtx = new Context(ScrapingUtils.forVerse(BibleBook.GEN, 1, verse), String.valueOf(verse));
+            Context textCtx = new Context(new ContextMetadata(FlatText.TEXT), "Verse text");
+            page.add(List.of(
+                    new ContextEvent(ContextEvent.Type.OPEN, verseCtx),
+                    new ContextEvent(ContextEvent.Type.OPEN, textCtx),
+                    new ContextEvent(ContextEvent.Type.CLOSE, textCtx),
+                    new ContextEvent(ContextEvent.Type.CLOSE, verseCtx)
+            ));
+        }
+        return page;
+    }
+
+    private static Stream<ContextEvent> wrap(Utils utils, Context context, Stream<ContextEvent> contents) {
+        return utils.concatStreams(List.of(
+                Stream.of(new ContextEvent(ContextEvent.Type.OPEN, context)),
+                contents,
+                Stream.of(new ContextEvent(ContextEvent.Type.CLOSE, context))
+        ));
+    }
+
+    private static Stream<ContextEvent> getChapter(Utils utils, BibleBook book, int chapter) {
+        Context chapterCtx = new Context(ScrapingUtils.forChapter(book, chapter), String.valueOf(chapter));
+        return utils.deferredStream(() -> wrap(utils, chapterCtx,
+                utils.lazyFlatMap(IntStream.range(0, NB_PAGES).boxed(),
+                        page -> utils.toStream(utils.toFlatIterator(PAGE.iterator())))
+        ).filter(e -> e.metadata.type != FlatText.NOTE));
+    }
+
+    private static Stream<ContextEvent> getBible(Utils utils) {
+        List<BibleBook> books = List.of(BibleBook.values()).subList(0, NB_BOOKS);
+        return wrap(utils, new Context(ScrapingUtils.forBible()),
+                utils.lazyFlatMap(books.stream(), book -> wrap(utils, new Context(ScrapingUtils.forBook(book), book.getOSIS()),
+                        utils.lazyFlatMap(IntStream.rangeClosed(1, NB_CHAPTERS).boxed(),
+                                chapter -> getChapter(utils, book, chapter))))
+        );
+    }
+
+    private static long iterate(Stream<ContextEvent> events) {
+        long nbEvents = 0;
+        Iterator<ContextEvent> it = events.iterator();
+        while(it.hasNext()) {
+            it.next();
+            nbEvents++;
+        }
+        return nbEvents;
+    }
+
+    private static long forEach(Stream<ContextEvent> events) {
+        long[] nbEvents = new long[1];
+        events.forEachOrdered(e -> nbEvents[0]++);
+        return nbEvents[0];
+    }
+
+    /**
+     *
+     * @param consumer Consumes the events and returns their number.
+     * @return The best throughput over several runs, in events per second.
+     */
+    private static double measure(Utils utils, ToLongFunction<Stream<ContextEvent>> consumer) {
+        double best = 0;
+        for(int run = 0; run < NB_WARMUP_RUNS + NB_RUNS; run++) {
+            long start = System.nanoTime();
+            long nbEvents = consumer.applyAsLong(getBible(utils));
+            long time = System.nanoTime() - start;
+            if(run >= NB_WARMUP_RUNS) {
+                best = Math.max(best, nbEvents * 1e9 / time);
+            }
+        }
+        return best;
+    }
+
+    public static void main(String[] args) {
+        Map<String, Utils> implementations = new LinkedHashMap<>();
+        implementations.put("iterators", new IteratorUtils());
+        implementations.put("spliterators", new CurrentUtils());
+        if(args.length > 0) {
+            // Measuring a single implementation per JVM avoids sharing the profile of the composition between them.
+            implementations.keySet().retainAll(List.of(args));
+        }
+
+        long nbEvents = getBible(new CurrentUtils()).count();
+        if(nbEvents != getBible(new IteratorUtils()).count()) {
+            throw new IllegalStateException("Both implementations must return the same events");
+        }
+        // Writers consume the stream through its iterator, other commands with forEachOrdered.
+        System.out.printf("%d events, M events/s\titerator\tforEachOrdered%n", nbEvents);
+        for(Map.Entry<String, Utils> implementation: implementations.entrySet()) {
+            System.out.printf("%s\t%.2f\t%.2f%n", implementation.getKey(),
+                    measure(implementation.getValue(), StreamUtilsBenchmark::iterate) / 1e6,
+                    measure(implementation.getValue(), StreamUtilsBenchmark::forEach) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.unaszole.bible.downloading;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Storage backend for the files kept by a {@link CachedDownloader}, identified by key.
+ */
+public interface CacheStore extends Closeable {
+    /**
+     *
+     * @param key The key of an entry.
+     * @return True if an entry is stored for this key, false otherwise.
+     */
+    boolean contains(String key);
+
+    /**
+     *
+     * @param key The key of an entry.
+     * @return An input stream to read the entry.
+     * @throws java.nio.file.NoSuchFileException If no entry is stored for this key.
+     * @throws IOException If the entry could not be read.
+     */
+    InputStream open(String key) throws IOException;
+
+    /**
+     * Store an entry, replacing any previous entry with the same key.
+     * The entry only becomes visible once it is completely stored.
+     * @param key The key of the entry.
+     * @param data A stream to read the contents of the entry from. It is not closed by this method.
+     * @throws IOException If the entry could not be stored.
+     */
+    void store(String key, InputStream data) throws IOException;
+
+    /**
+     * Remove an entry, if present.
+     * @param key The key of the entry.
+     * @throws IOException If the entry could not be removed.
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     *
+     * @return The keys of all entries in this store.
+     * @throws IOException If the store could not be listed.
+     */
+    List<String> keys() throws IOException;
+
+    /**
+     * Copy entries of this store into another store.
+     * @param target The store to copy the entries to.
+     * @param keyFilter Selects the keys of the entries to copy.
+     * @return The number of entries copied. Entries already present in the target store are not copied again.
+     * @throws IOException If any entry could not be copied.
+     */
+    default int copyTo(CacheStore target, Predicate<String> keyFilter) throws IOException {
+        int nbCopied = 0;
+        for (String key : keys()) {
+            if (keyFilter.test(key) && !target.contains(key)) {
+                try (InputStream data = open(key)) {
+                    target.store(key, data);
+                }
+                nbCopied++;
+            }
+        }
+        return nbCopied;
+    }
+
+    /**
+     * Copy all entries of this store into another store.
+     * @param target The store to copy the entries to.
+     * @return The number of entries copied. Entries already present in the target store are not copied again.
+     * @throws IOException If any entry could not be copied.
+     */
+    default int copyTo(CacheStore target) throws IOException {
+        return copyTo(target, key -> true);
+    }
+
+    /**
+     * Release the resources held by this store. It must not be used anymore afterwards.
+     * @throws IOException If the store could not be closed properly.
+     */
+    @Override
+    default void close() throws IOException {
+        // Nothing to release by default.
+    }
+}
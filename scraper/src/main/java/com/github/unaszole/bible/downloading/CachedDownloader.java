@@ -1,57 +1,561 @@
 package com.github.unaszole.bible.downloading;
 
+import com.github.unaszole.bible.monitor.ExecutionMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
 import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class CachedDownloader {
+/**
+ * Downloads source files into a local cache, so that each source file is only fetched once.
+ * <p>
+ * This downloader may be used from several threads at once : concurrent requests for the same source file wait for a
+ * single download. A file only appears in the cache once fully downloaded, so that an interrupted download is never
+ * mistaken for a cached file.
+ * <p>
+ * Cached files may be given a time to live. Once expired, a file is revalidated with the server : the validators
+ * (entity tag and last modification date) kept in a metadata entry next to the file let the server answer that
+ * the file was not modified, without sending it again. If the server cannot be reached, the expired file is used.
+ * <p>
+ * Negative results are also cached, with their own time to live : source files the server reported as missing, and
+ * source files a scraper flagged as empty. Missing files (HTTP status 404 or 410) are not requested again until their
+ * negative result expires.
+ */
+public class CachedDownloader implements Closeable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(CachedDownloader.class);
 	
-	private final Path cacheDirectory;
-	
+	private static final String METADATA_SUFFIX = ".meta";
+
+	/**
+	 * Metadata about a cached file, stored next to it.
+	 */
+	private static class Metadata {
+		private static final String FETCHED_AT = "fetchedAt";
+		private static final String ETAG = "etag";
+		private static final String LAST_MODIFIED = "lastModified";
+
+		final Instant fetchedAt;
+		final String etag;
+		final String lastModified;
+
+		Metadata(Instant fetchedAt, String etag, String lastModified) {
+			this.fetchedAt = fetchedAt;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		static Metadata fromProperties(Properties props) {
+			return new Metadata(
+					Instant.parse(props.getProperty(FETCHED_AT)),
+					props.getProperty(ETAG),
+					props.getProperty(LAST_MODIFIED)
+			);
+		}
+
+		Properties toProperties() {
+			Properties props = new Properties();
+			props.setProperty(FETCHED_AT, fetchedAt.toString());
+			if(etag != null) {
+				props.setProperty(ETAG, etag);
+			}
+			if(lastModified != null) {
+				props.setProperty(LAST_MODIFIED, lastModified);
+			}
+			return props;
+		}
+	}
+
+	private static final String NEGATIVE_SUFFIX = ".missing";
+
+	/**
+	 *
+	 * @param key The key of an entry of the cache store.
+	 * @return True if this entry holds a downloaded file, false if it holds data kept next to a downloaded file (such
+	 * as its metadata), or a downloaded file in a transformed form (such as compressed).
+	 */
+	public static boolean isDownloadedFile(String key) {
+		// Downloaded files are stored under the hash of their source file : any suffix marks another kind of entry.
+		return !key.contains(".");
+	}
+
+	/**
+	 * A negative result for a source file, stored next to it.
+	 */
+	private static class NegativeResult {
+		private static final String RECORDED_AT = "recordedAt";
+		private static final String STATUS_CODE = "statusCode";
+
+		final Instant recordedAt;
+		/**
+		 * The HTTP status the server answered with, or null if the file was flagged as empty by a scraper.
+		 */
+		final Integer statusCode;
+
+		NegativeResult(Instant recordedAt, Integer statusCode) {
+			this.recordedAt = recordedAt;
+			this.statusCode = statusCode;
+		}
+
+		static NegativeResult fromProperties(Properties props) {
+			return new NegativeResult(
+					Instant.parse(props.getProperty(RECORDED_AT)),
+					props.containsKey(STATUS_CODE) ? Integer.parseInt(props.getProperty(STATUS_CODE)) : null
+			);
+		}
+
+		Properties toProperties() {
+			Properties props = new Properties();
+			props.setProperty(RECORDED_AT, recordedAt.toString());
+			if(statusCode != null) {
+				props.setProperty(STATUS_CODE, statusCode.toString());
+			}
+			return props;
+		}
+	}
+
+	/**
+	 * Default duration after which negative results expire.
+	 */
+	public static final Duration DEFAULT_NEGATIVE_TIME_TO_LIVE = Duration.ofDays(7);
+
+	private final CacheStore store;
+	private final Duration timeToLive;
+	private final Duration negativeTimeToLive;
+
+	/**
+	 * Downloads currently in progress, by hash of their source file.
+	 */
+	private final ConcurrentMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 *
+	 * @param store The store in which to keep the downloaded files.
+	 * @param timeToLive The duration after which a cached file must be revalidated, or null if cached files never
+	 *                   expire.
+	 * @param negativeTimeToLive The duration after which a negative result expires.
+	 */
+	public CachedDownloader(CacheStore store, Duration timeToLive, Duration negativeTimeToLive) {
+		this.store = store;
+		this.timeToLive = timeToLive;
+		this.negativeTimeToLive = negativeTimeToLive;
+	}
+
+	/**
+	 *
+	 * @param store The store in which to keep the downloaded files. Cached files never expire, and negative results
+	 *              expire after {@link #DEFAULT_NEGATIVE_TIME_TO_LIVE}.
+	 */
+	public CachedDownloader(CacheStore store) {
+		this(store, null, DEFAULT_NEGATIVE_TIME_TO_LIVE);
+	}
+
+	/**
+	 *
+	 * @param cacheDirectory The directory in which to keep the downloaded files, one file per source file.
+	 * Files are stored uncompressed, but files already compressed in this directory may be read.
+	 */
 	public CachedDownloader(Path cacheDirectory) throws IOException {
-		this.cacheDirectory = cacheDirectory;
-		Files.createDirectories(cacheDirectory);
+		this(new CompressingStore(new LooseFileStore(cacheDirectory), false));
+	}
+
+	private Optional<Properties> readProperties(String key) {
+		if(!store.contains(key)) {
+			return Optional.empty();
+		}
+		try(InputStream in = store.open(key)) {
+			Properties props = new Properties();
+			props.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+			return Optional.of(props);
+		}
+		catch (IOException e) {
+			LOG.warn("Ignoring unreadable cache entry {}", key, e);
+			return Optional.empty();
+		}
+	}
+
+	private void writeProperties(String key, Properties props) throws IOException {
+		StringWriter writer = new StringWriter();
+		props.store(writer, null);
+		try(InputStream in = new ByteArrayInputStream(writer.toString().getBytes(StandardCharsets.UTF_8))) {
+			store.store(key, in);
+		}
+	}
+
+	private Optional<Metadata> readMetadata(String hash) {
+		try {
+			return readProperties(hash + METADATA_SUFFIX).map(Metadata::fromProperties);
+		}
+		catch (RuntimeException e) {
+			LOG.warn("Ignoring invalid cache metadata for {}", hash, e);
+			return Optional.empty();
+		}
+	}
+
+	private void writeMetadata(String hash, Metadata metadata) throws IOException {
+		writeProperties(hash + METADATA_SUFFIX, metadata.toProperties());
 	}
 
 	/**
 	 *
-	 * @param source The source file to open.
-	 * @return The path to a local working copy of this source file.
+	 * @param hash The hash of a source file.
+	 * @return The negative result recorded for this source file, if any and not expired.
 	 */
-	public Path getFile(SourceFile source) {
-		String hash = source.getHash();
-		Path targetPath = cacheDirectory.resolve(hash);
+	private Optional<NegativeResult> readNegativeResult(String hash) {
+		try {
+			return readProperties(hash + NEGATIVE_SUFFIX)
+					.map(NegativeResult::fromProperties)
+					.filter(n -> n.recordedAt.plus(negativeTimeToLive).isAfter(Instant.now()));
+		}
+		catch (RuntimeException e) {
+			LOG.warn("Ignoring invalid negative cache entry for {}", hash, e);
+			return Optional.empty();
+		}
+	}
+
+	private void writeNegativeResult(String hash, NegativeResult negativeResult) {
+		try {
+			writeProperties(hash + NEGATIVE_SUFFIX, negativeResult.toProperties());
+		}
+		catch (IOException e) {
+			// Failing to record a negative result only means that it will be fetched again.
+			LOG.warn("Could not record negative result for {}", hash, e);
+		}
+	}
+
+	/**
+	 *
+	 * @param statusCode An HTTP status.
+	 * @return True if this status means that the requested file is missing, and will remain so for a while.
+	 */
+	private static boolean isMissing(int statusCode) {
+		// Other errors, such as 401 or 403, may depend on the request or the session rather than on the file.
+		return statusCode == 404 || statusCode == 410;
+	}
+
+	/**
+	 *
+	 * @param e An exception thrown while fetching a source file.
+	 * @return True if the source file could not be fetched because the server reported it as missing.
+	 */
+	public static boolean isMissing(Exception e) {
+		Throwable cause = e instanceof RuntimeException && e.getCause() != null ? e.getCause() : e;
+		return cause instanceof HttpStatusException && isMissing(((HttpStatusException) cause).statusCode);
+	}
+
+	/**
+	 *
+	 * @param hash The hash of a source file.
+	 * @return True if this source file is cached and not expired.
+	 */
+	private boolean isFresh(String hash) {
+		if(!store.contains(hash)) {
+			return false;
+		}
+		if(timeToLive == null) {
+			return true;
+		}
+		// Files cached without metadata are considered expired.
+		return readMetadata(hash)
+				.map(m -> m.fetchedAt.plus(timeToLive).isAfter(Instant.now()))
+				.orElse(false);
+	}
+
+	/**
+	 * Counts the bytes read from a stream.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
 
-		if(Files.exists(targetPath)) {
-			// File is already present, return it.
-			return targetPath;
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0) {
+				count++;
+			}
+			return b;
 		}
 
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int nbRead = super.read(b, off, len);
+			if(nbRead > 0) {
+				count += nbRead;
+			}
+			return nbRead;
+		}
+	}
+
+	/**
+	 * Summary of the download of several source files.
+	 */
+	public static class FetchReport {
+		/**
+		 * Number of distinct source files requested.
+		 */
+		public final int nbSourceFiles;
+		/**
+		 * Number of source files actually downloaded, ie. not already cached.
+		 */
+		public final int nbDownloaded;
+		/**
+		 * Total size of the downloaded source files.
+		 */
+		public final long downloadedBytes;
+		public final Duration elapsed;
+		/**
+		 * The source files that could not be fetched, with the reason.
+		 */
+		public final Map<SourceFile, Exception> failures;
+
+		public FetchReport(int nbSourceFiles, int nbDownloaded, long downloadedBytes, Duration elapsed,
+						   Map<SourceFile, Exception> failures) {
+			this.nbSourceFiles = nbSourceFiles;
+			this.nbDownloaded = nbDownloaded;
+			this.downloadedBytes = downloadedBytes;
+			this.elapsed = elapsed;
+			this.failures = failures;
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of bytes downloaded, or 0 if the cached copy was still current.
+	 */
+	private long download(SourceFile source, String hash) throws IOException {
+		// If an expired version is cached, only fetch the file if it was modified since.
+		boolean expiredCopy = store.contains(hash);
+		Optional<Metadata> previous = expiredCopy ? readMetadata(hash) : Optional.empty();
+		String etag = previous.map(m -> m.etag).orElse(null);
+		String lastModified = previous.map(m -> m.lastModified).orElse(null);
+
 		LOG.debug("Downloading from {}", source);
+		Optional<FetchedFile> fetched;
+		try {
+			fetched = source.fetchIfModified(etag, lastModified);
+		}
+		catch (IOException e) {
+			if(e instanceof HttpStatusException && isMissing(((HttpStatusException) e).statusCode)) {
+				writeNegativeResult(hash, new NegativeResult(Instant.now(), ((HttpStatusException) e).statusCode));
+				throw e;
+			}
+			if(!expiredCopy || e instanceof InterruptedIOException) {
+				throw e;
+			}
+			return useExpiredCopy(source, e);
+		}
+
+		if(fetched.isEmpty()) {
+			LOG.debug("Cached copy of {} is still current", source);
+			ExecutionMonitor.INSTANCE.count("Cached pages revalidated", 1);
+			writeMetadata(hash, new Metadata(Instant.now(), etag, lastModified));
+			return 0;
+		}
+
+		try(FetchedFile file = fetched.get()) {
+			CountingInputStream counted = new CountingInputStream(file.stream);
+			store.store(hash, counted);
+			// Metadata is only useful to revalidate the file later.
+			if(timeToLive != null || file.etag != null || file.lastModified != null) {
+				writeMetadata(hash, new Metadata(Instant.now(), file.etag, file.lastModified));
+			}
+			ExecutionMonitor.INSTANCE.count("Downloaded pages", 1);
+			ExecutionMonitor.INSTANCE.count("Downloaded bytes", counted.count);
+			return counted.count;
+		}
+	}
+
+	/**
+	 * Keep using the expired copy of a file which could not be revalidated : it is better than no file at all.
+	 * Its metadata is left as is, so that it is revalidated again the next time it is requested.
+	 * @return 0, as nothing was downloaded.
+	 */
+	private static long useExpiredCopy(SourceFile source, IOException failure) {
+		LOG.warn("Could not revalidate {}, using the expired cached copy", source, failure);
+		ExecutionMonitor.INSTANCE.count("Expired pages used after failed revalidation", 1);
+		return 0;
+	}
+
+	private static void await(CompletableFuture<Void> download) {
+		try {
+			download.join();
+		}
+		catch (CompletionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Make sure the given source file is present in the cache, downloading it if needed.
+	 * @param source The source file to fetch.
+	 * @return The number of bytes downloaded by this call, or 0 if the file was already cached or downloaded by
+	 * another thread.
+	 */
+	public long fetch(SourceFile source) {
+		String hash = source.getHash();
+
+		if(isFresh(hash)) {
+			// File is already present.
+			return 0;
+		}
+
+		Optional<NegativeResult> negativeResult = readNegativeResult(hash);
+		if(negativeResult.isPresent() && negativeResult.get().statusCode != null) {
+			// File is known to be missing : fail right away, as when it was requested.
+			LOG.debug("Known missing {}", source);
+			ExecutionMonitor.INSTANCE.count("Known missing pages skipped", 1);
+			throw new RuntimeException(new HttpStatusException(source.getBaseUri(), negativeResult.get().statusCode));
+		}
+
+		CompletableFuture<Void> download = new CompletableFuture<>();
+		CompletableFuture<Void> existingDownload = inFlight.putIfAbsent(hash, download);
+		if(existingDownload != null) {
+			// Another thread is already downloading this file : wait for it.
+			LOG.debug("Waiting for concurrent download of {}", source);
+			await(existingDownload);
+			return 0;
+		}
+
+		try {
+			// The file may have been completed by another thread since we first checked.
+			long downloadedBytes = isFresh(hash) ? 0 : download(source, hash);
+			download.complete(null);
+			return downloadedBytes;
+		}
+		catch (IOException | RuntimeException e) {
+			RuntimeException failure = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+			download.completeExceptionally(failure);
+			throw failure;
+		}
+		finally {
+			inFlight.remove(hash, download);
+		}
+	}
+
+	/**
+	 * Make sure all the given source files are present in the cache, downloading them in parallel if needed.
+	 * Failures do not interrupt the other downloads : they are collected in the returned report.
+	 * @param sources The source files to fetch. Duplicates are only fetched once.
+	 * @param parallelism The maximum number of files downloaded at the same time.
+	 * @return A summary of the downloads.
+	 */
+	public FetchReport fetchAll(List<SourceFile> sources, int parallelism) {
+		Map<String, SourceFile> distinctSources = new LinkedHashMap<>();
+		sources.forEach(s -> distinctSources.putIfAbsent(s.getHash(), s));
+
+		AtomicInteger nbDownloaded = new AtomicInteger();
+		AtomicLong downloadedBytes = new AtomicLong();
+		Map<SourceFile, Exception> failures = new ConcurrentHashMap<>();
+
+		Instant start = Instant.now();
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+		try {
+			CompletableFuture.allOf(distinctSources.values().stream()
+					.map(source -> CompletableFuture.runAsync(() -> {
+						try {
+							long bytes = fetch(source);
+							if(bytes > 0) {
+								nbDownloaded.incrementAndGet();
+								downloadedBytes.addAndGet(bytes);
+							}
+						}
+						catch (RuntimeException e) {
+							LOG.warn("Failed to fetch {}", source, e);
+							failures.put(source, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+						}
+					}, workers))
+					.toArray(CompletableFuture[]::new)
+			).join();
+		}
+		finally {
+			workers.shutdown();
+		}
+
+		return new FetchReport(distinctSources.size(), nbDownloaded.get(), downloadedBytes.get(),
+				Duration.between(start, Instant.now()), failures);
+	}
 
-        try {
-			// File is missing, download it.
-			ReadableByteChannel inChannel = Channels.newChannel(source.openStream());
-			FileChannel outChannel = FileChannel.open(targetPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-			outChannel.transferFrom(inChannel, 0, Long.MAX_VALUE);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-		
-		return targetPath;
+	/**
+	 *
+	 * @param source The source file to open.
+	 * @return An input stream to read the cached copy of this source file.
+	 * @throws IOException If the cached copy could not be read.
+	 */
+	public InputStream openStream(SourceFile source) throws IOException {
+		fetch(source);
+		return store.open(source.getHash());
 	}
 
-	public Path getFile(URL url) throws IOException {
-		return getFile(new HttpSourceFile(url));
+	/**
+	 *
+	 * @param source A source file.
+	 * @return True if this source file was reported missing by the server, or flagged as empty by
+	 * {@link #markEmpty(SourceFile)}, and this negative result did not expire yet.
+	 */
+	public boolean isKnownEmpty(SourceFile source) {
+		return readNegativeResult(source.getHash()).isPresent();
+	}
+
+	/**
+	 * Record that the given source file, though successfully fetched, has no useful content.
+	 * Until this negative result expires, {@link #isKnownEmpty(SourceFile)} returns true for this source file, so that
+	 * scrapers may skip it without fetching it again.
+	 * @param source The source file to flag as empty.
+	 */
+	public void markEmpty(SourceFile source) {
+		writeNegativeResult(source.getHash(), new NegativeResult(Instant.now(), null));
+	}
+
+	/**
+	 * Let the downloader know that the given source files will be requested soon, in this order.
+	 * The base downloader ignores this information, and only fetches files when they are requested.
+	 * @param sources The source files that will be requested.
+	 */
+	public void announce(List<SourceFile> sources) {
+		// Nothing to prepare by default.
+	}
+
+	public InputStream openStream(URL url) throws IOException {
+		return openStream(new HttpSourceFile(url));
+	}
+
+	/**
+	 * Release the resources held by this downloader. It must not be used anymore afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		store.close();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+package com.github.unaszole.bible.downloading;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Tracks the failures of requests to a single host, and suspends requests to this host after too many consecutive
+ * failed requests.
+ * <p>
+ * Requests to a suspended host wait until the suspension is over. A single trial request is then let through, while
+ * the others keep waiting : if it succeeds, the breaker is reset and all requests are allowed again, and if it fails,
+ * requests are suspended again.
+ */
+class CircuitBreaker {
+
+    private final int threshold;
+    private final Duration cooldown;
+
+    private int consecutiveFailures = 0;
+    private Instant suspendedUntil = null;
+    private boolean trialInProgress = false;
+
+    CircuitBreaker(int threshold, Duration cooldown) {
+        this.threshold = threshold;
+        this.cooldown = cooldown;
+    }
+
+    /**
+     * Wait until a request to this host is allowed. Each call must be followed by a call to
+     * {@link #recordSuccess()}, {@link #recordFailure()} or {@link #release()} once the request is over.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (suspendedUntil != null) {
+            long remainingMillis = Duration.between(Instant.now(), suspendedUntil).toMillis();
+            if (remainingMillis > 0) {
+                wait(remainingMillis);
+            }
+            else if (!trialInProgress) {
+                // The suspension is over : let this request through to check whether the host recovered.
+                trialInProgress = true;
+                return;
+            }
+            else {
+                // Wait for the outcome of the trial request.
+                wait();
+            }
+        }
+    }
+
+    synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        suspendedUntil = null;
+        trialInProgress = false;
+        notifyAll();
+    }
+
+    /**
+     * Record a request which failed, after all its attempts.
+     * @return True if this failure caused requests to this host to be suspended.
+     */
+    synchronized boolean recordFailure() {
+        consecutiveFailures++;
+        if (trialInProgress || consecutiveFailures >= threshold) {
+            trialInProgress = false;
+            suspendedUntil = Instant.now().plus(cooldown);
+            notifyAll();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a request which was abandoned before its outcome was known.
+     */
+    synchronized void release() {
+        if (trialInProgress) {
+            // Let another request try instead.
+            trialInProgress = false;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.unaszole.bible.downloading;
+
+import com.github.unaszole.bible.monitor.ExecutionMonitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache store which transparently decompresses entries stored compressed in an underlying store, and optionally
+ * compresses new entries.
+ * <p>
+ * A compressed entry is stored gzipped, under its key followed by {@link #SUFFIX}. Uncompressed entries remain
+ * readable, so that compression can be enabled on an existing cache. Storing an entry removes it in the other form, so
+ * that a single form of each entry is ever present.
+ */
+public class CompressingStore implements CacheStore {
+
+    public static final String SUFFIX = ".gz";
+
+    /**
+     * Reports the time spent decompressing an entry to the execution monitor when closed.
+     */
+    private static class MonitoredInputStream extends FilterInputStream {
+        private long decodeNanos = 0;
+
+        MonitoredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            }
+            finally {
+                decodeNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(b, off, len);
+            }
+            finally {
+                decodeNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            ExecutionMonitor.INSTANCE.count("Cached pages decompressed", 1);
+            ExecutionMonitor.INSTANCE.count("Cache decompression time (microseconds)", decodeNanos / 1000);
+        }
+    }
+
+    private final CacheStore delegate;
+    private final boolean compressNewEntries;
+
+    /**
+     *
+     * @param delegate The store holding the entries.
+     * @param compressNewEntries True to compress the entries stored from now on, false to store them as is.
+     */
+    public CompressingStore(CacheStore delegate, boolean compressNewEntries) {
+        this.delegate = delegate;
+        this.compressNewEntries = compressNewEntries;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return delegate.contains(key + SUFFIX) || delegate.contains(key);
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        if (delegate.contains(key + SUFFIX)) {
+            return new MonitoredInputStream(new GZIPInputStream(delegate.open(key + SUFFIX)));
+        }
+        return delegate.open(key);
+    }
+
+    @Override
+    public void store(String key, InputStream data) throws IOException {
+        if (!compressNewEntries) {
+            // The compressed form is read first : remove it before, so that the new entry is never hidden by it.
+            delegate.delete(key + SUFFIX);
+            delegate.store(key, data);
+            return;
+        }
+
+        byte[] contents = data.readAllBytes();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(contents.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(contents);
+        }
+        delegate.store(key + SUFFIX, new ByteArrayInputStream(compressed.toByteArray()));
+        delegate.delete(key);
+
+        ExecutionMonitor.INSTANCE.count("Cached pages compressed", 1);
+        ExecutionMonitor.INSTANCE.count("Cached bytes before compression", contents.length);
+        ExecutionMonitor.INSTANCE.count("Cached bytes after compression", compressed.size());
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        delegate.delete(key + SUFFIX);
+        delegate.delete(key);
+    }
+
+    @Override
+    public List<String> keys() throws IOException {
+        return delegate.keys().stream()
+                .map(k -> k.endsWith(SUFFIX) ? k.substring(0, k.length() - SUFFIX.length()) : k)
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
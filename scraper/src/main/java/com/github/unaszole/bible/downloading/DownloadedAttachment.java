@@ -3,8 +3,8 @@ package com.github.unaszole.bible.downloading;
 import com.github.unaszole.bible.datamodel.valuetypes.Attachment;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
-import java.nio.file.Files;
 
 public class DownloadedAttachment implements Attachment {
 
@@ -16,6 +16,14 @@ public class DownloadedAttachment implements Attachment {
         this.url = url;
     }
 
+    /**
+     *
+     * @return The URL this attachment is downloaded from.
+     */
+    public URL getUrl() {
+        return url;
+    }
+
     @Override
     public String getName() {
         return url.getPath().substring(url.getPath().lastIndexOf('/') + 1);
@@ -23,8 +31,8 @@ public class DownloadedAttachment implements Attachment {
 
     @Override
     public byte[] getBytes() {
-        try {
-            return Files.readAllBytes(downloader.getFile(url));
+        try(InputStream in = downloader.openStream(url)) {
+            return in.readAllBytes();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
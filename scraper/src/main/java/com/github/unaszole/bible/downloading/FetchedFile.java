@@ -0,0 +1,35 @@
+package com.github.unaszole.bible.downloading;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The contents of a freshly fetched source file, along with the validators that allow checking later whether it was
+ * modified.
+ */
+public class FetchedFile implements Closeable {
+    /**
+     * A stream to read the file.
+     */
+    public final InputStream stream;
+    /**
+     * The entity tag of this version of the file, or null if unknown.
+     */
+    public final String etag;
+    /**
+     * The last modification date of this version of the file, as sent by the server, or null if unknown.
+     */
+    public final String lastModified;
+
+    public FetchedFile(InputStream stream, String etag, String lastModified) {
+        this.stream = stream;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.unaszole.bible.downloading;
+
+import com.github.unaszole.bible.monitor.ExecutionMonitor;
+
+/**
+ * Token bucket limiting the rate and concurrency of the requests sent to a single host, with additive increase and
+ * multiplicative decrease of both.
+ * <p>
+ * The limits start low, and increase slightly after each successful request, as long as the response time remains
+ * close to its average and the configured bounds are not reached. They are halved whenever the host signals that it is
+ * overloaded.
+ */
+class HostRateLimiter {
+
+    enum Outcome {
+        /**
+         * The host answered normally.
+         */
+        SUCCESS,
+        /**
+         * The host answered that it is overloaded, or did not answer in time.
+         */
+        THROTTLED,
+        /**
+         * The request failed for another reason, that says nothing about the load of the host.
+         */
+        FAILED
+    }
+
+    private static final double MIN_REQUESTS_PER_SECOND = 0.1;
+    private static final double DECREASE_FACTOR = 0.5;
+    /**
+     * Number of steps for the rate to grow from zero to its bound.
+     */
+    private static final int INCREASE_STEPS = 20;
+    /**
+     * Response times longer than this factor of the average do not allow an increase.
+     */
+    private static final double LATENCY_TOLERANCE = 2;
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final String host;
+    private final RateLimit bounds;
+
+    private double requestsPerSecond;
+    private double concurrency = 1;
+    private double tokens = 1;
+    private long lastRefillNanos = System.nanoTime();
+    private int inFlight = 0;
+    private double averageLatencyMillis = -1;
+
+    HostRateLimiter(String host, RateLimit bounds) {
+        this.host = host;
+        this.bounds = bounds;
+        this.requestsPerSecond = Math.max(getMinRequestsPerSecond(), bounds.maxRequestsPerSecond / 4);
+        publishState();
+    }
+
+    private double getMinRequestsPerSecond() {
+        return Math.min(MIN_REQUESTS_PER_SECOND, bounds.maxRequestsPerSecond);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        // Allow a burst of as many requests as may run concurrently.
+        tokens = Math.min(Math.max(1, Math.floor(concurrency)),
+                tokens + (now - lastRefillNanos) / 1e9 * requestsPerSecond);
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Wait until a request to this host may be started.
+     * Each call must be followed by a call to {@link #release(Outcome, long)} once the request is complete.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (true) {
+            refill();
+            if (inFlight < Math.floor(concurrency) && tokens >= 1) {
+                tokens -= 1;
+                inFlight++;
+                return;
+            }
+            if (tokens >= 1) {
+                // Waiting for a request in progress to complete.
+                wait();
+            } else {
+                // Waiting for the next token.
+                wait(Math.max(1, (long) Math.ceil((1 - tokens) / requestsPerSecond * 1000)));
+            }
+        }
+    }
+
+    /**
+     * Signal that a request to this host is complete, and adapt the limits to its outcome.
+     * @param outcome How the host answered.
+     * @param latencyMillis How long the request took.
+     */
+    synchronized void release(Outcome outcome, long latencyMillis) {
+        inFlight--;
+        switch (outcome) {
+            case THROTTLED:
+                requestsPerSecond = Math.max(getMinRequestsPerSecond(), requestsPerSecond * DECREASE_FACTOR);
+                concurrency = Math.max(1, concurrency * DECREASE_FACTOR);
+                break;
+            case SUCCESS:
+                if (averageLatencyMillis < 0 || latencyMillis <= averageLatencyMillis * LATENCY_TOLERANCE) {
+                    requestsPerSecond = Math.min(bounds.maxRequestsPerSecond,
+                            requestsPerSecond + bounds.maxRequestsPerSecond / INCREASE_STEPS);
+                    // Grows by about one for each round of concurrent requests.
+                    concurrency = Math.min(bounds.maxConcurrency, concurrency + 1 / concurrency);
+                }
+                averageLatencyMillis = averageLatencyMillis < 0 ? latencyMillis
+                        : averageLatencyMillis + LATENCY_SMOOTHING * (latencyMillis - averageLatencyMillis);
+                break;
+            case FAILED:
+                break;
+        }
+        publishState();
+        notifyAll();
+    }
+
+    /**
+     *
+     * @return The number of requests currently allowed per second.
+     */
+    synchronized double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     *
+     * @return The number of requests currently allowed in progress at the same time.
+     */
+    synchronized int getConcurrency() {
+        return (int) Math.floor(concurrency);
+    }
+
+    private void publishState() {
+        ExecutionMonitor.INSTANCE.indicate(host,
+                String.format("%.1f req/s x%d", requestsPerSecond, getConcurrency()));
+    }
+}
@@ -2,9 +2,7 @@ package com.github.unaszole.bible.downloading;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Formatter;
@@ -20,6 +18,19 @@ public class HttpSourceFile implements SourceFile {
     private static final String DEFAULT_USER_AGENT = "BibleScraper/1.0 (https://github.com/UnasZole/bible-scraper)";
 
     public static class Builder implements SourceFile.Builder {
+        private final HttpTransport transport;
+
+        /**
+         * @param transport The transport used by all source files built by this builder.
+         */
+        public Builder(HttpTransport transport) {
+            this.transport = transport;
+        }
+
+        public Builder() {
+            this(HttpTransport.DEFAULT);
+        }
+
         public static URL toUrl(String str) {
             try {
                 // Try to fix the URL almost as a browser would do, so that users can input URLs like visible
@@ -48,7 +59,7 @@ public class HttpSourceFile implements SourceFile {
 
             String userAgent = propertySource.apply("UserAgent").orElse(DEFAULT_USER_AGENT);
 
-            return Optional.of(new HttpSourceFile(toUrl(url.get()), Map.of("User-Agent", userAgent), method, body));
+            return Optional.of(new HttpSourceFile(transport, toUrl(url.get()), Map.of("User-Agent", userAgent), method, body));
         }
     }
 
@@ -60,21 +71,29 @@ public class HttpSourceFile implements SourceFile {
         }
     }
 
-    private static final MessageDigest HASHER = getMessageDigest();
-
+    private final HttpTransport transport;
     private final URL url;
     private final Map<String, String> headers;
     private final String method;
     private final String body;
+    /**
+     * Hash of this source file, computed on first use.
+     */
+    private volatile String hash = null;
 
-    public HttpSourceFile(URL url, Map<String, String> headers, String method, String body) {
+    public HttpSourceFile(HttpTransport transport, URL url, Map<String, String> headers, String method, String body) {
         assert Objects.equals(url.getProtocol(), "http") || Objects.equals(url.getProtocol(), "https");
+        this.transport = transport;
         this.url = url;
         this.headers = Optional.ofNullable(headers).orElse(Map.of("User-Agent", DEFAULT_USER_AGENT));
         this.method = method;
         this.body = body;
     }
 
+    public HttpSourceFile(URL url, Map<String, String> headers, String method, String body) {
+        this(HttpTransport.DEFAULT, url, headers, method, body);
+    }
+
     public HttpSourceFile(URL url, String method, String body) {
         this(url, null, method, body);
     }
@@ -83,8 +102,7 @@ public class HttpSourceFile implements SourceFile {
         this(url, "GET", null);
     }
 
-    @Override
-    public String getHash() {
+    private String computeHash() {
         String hashSource = url.toString();
         if (!Objects.equals(method, "GET")) {
             hashSource += "%%M" + method;
@@ -96,13 +114,25 @@ public class HttpSourceFile implements SourceFile {
             hashSource += "%%B" + body;
         }
 
+        // MessageDigest instances are not thread-safe : use a new one for each computation.
         Formatter formatter = new Formatter();
-        for (byte b : HASHER.digest(hashSource.getBytes())) {
+        for (byte b : getMessageDigest().digest(hashSource.getBytes())) {
             formatter.format("%02x", b);
         }
         return formatter.toString();
     }
 
+    @Override
+    public String getHash() {
+        // Source files are immutable : the hash can be computed once and reused.
+        String result = hash;
+        if (result == null) {
+            result = computeHash();
+            hash = result;
+        }
+        return result;
+    }
+
     @Override
     public URI getBaseUri() {
         try {
@@ -114,22 +144,12 @@ public class HttpSourceFile implements SourceFile {
 
     @Override
     public InputStream openStream() throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod(method);
-        connection.setDoInput(true);
-        if (headers != null) {
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                connection.setRequestProperty(header.getKey(), header.getValue());
-            }
-        }
-        if (body != null) {
-            connection.setDoOutput(true);
-            OutputStream out = connection.getOutputStream();
-            out.write(body.getBytes(StandardCharsets.UTF_8));
-            out.close();
-        }
+        return transport.send(getBaseUri(), method, headers, body);
+    }
 
-        return connection.getInputStream();
+    @Override
+    public Optional<FetchedFile> fetchIfModified(String etag, String lastModified) throws IOException {
+        return transport.sendIfModified(getBaseUri(), method, headers, body, etag, lastModified);
     }
 
     @Override
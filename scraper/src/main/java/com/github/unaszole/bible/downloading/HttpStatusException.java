@@ -0,0 +1,30 @@
+package com.github.unaszole.bible.downloading;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+
+/**
+ * Thrown when a server answers a request with a non-successful HTTP status.
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public final URI uri;
+    public final int statusCode;
+    /**
+     * The delay the server asked to wait before retrying, or null if it did not specify one.
+     */
+    public final Duration retryAfter;
+
+    public HttpStatusException(URI uri, int statusCode, Duration retryAfter) {
+        super("Server returned HTTP status " + statusCode + " for " + uri);
+        this.uri = uri;
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public HttpStatusException(URI uri, int statusCode) {
+        this(uri, statusCode, null);
+    }
+}
@@ -0,0 +1,359 @@
+package com.github.unaszole.bible.downloading;
+
+import com.github.unaszole.bible.monitor.ExecutionMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Sends HTTP requests through a shared client, which keeps connections alive between requests to the same host and
+ * multiplexes them over HTTP/2 when the server supports it.
+ * Responses are transparently decoded if the server compressed them.
+ * <p>
+ * Failed requests are retried according to a {@link RetryPolicy}, unless their method is not idempotent. Requests to a
+ * host are suspended when it fails repeatedly : they wait until the host is checked to have recovered.
+ */
+public class HttpTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpTransport.class);
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(120);
+
+    /**
+     * Transport with default timeouts and retry policy, shared by all source files that do not specify their own.
+     */
+    public static final HttpTransport DEFAULT = new HttpTransport(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT,
+            RetryPolicy.DEFAULT);
+
+    private final HttpClient client;
+    private final Duration readTimeout;
+    private final RetryPolicy retryPolicy;
+    private final RateLimit rateLimit;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, HostRateLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param connectTimeout Maximum time to wait for a connection to the server to be established.
+     * @param readTimeout Maximum time to wait for the full response once the request is sent.
+     * @param retryPolicy How to retry failed requests.
+     * @param rateLimit Bounds for the requests sent to each host, or null to send requests as soon as asked.
+     */
+    public HttpTransport(Duration connectTimeout, Duration readTimeout, RetryPolicy retryPolicy, RateLimit rateLimit) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .build();
+        this.readTimeout = readTimeout;
+        this.retryPolicy = retryPolicy;
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Build a transport which sends requests as soon as asked.
+     * @param connectTimeout Maximum time to wait for a connection to the server to be established.
+     * @param readTimeout Maximum time to wait for the full response once the request is sent.
+     * @param retryPolicy How to retry failed requests.
+     */
+    public HttpTransport(Duration connectTimeout, Duration readTimeout, RetryPolicy retryPolicy) {
+        this(connectTimeout, readTimeout, retryPolicy, null);
+    }
+
+    /**
+     * Build a transport which never retries failed requests.
+     * @param connectTimeout Maximum time to wait for a connection to the server to be established.
+     * @param readTimeout Maximum time to wait for the full response once the request is sent.
+     */
+    public HttpTransport(Duration connectTimeout, Duration readTimeout) {
+        this(connectTimeout, readTimeout, RetryPolicy.NONE);
+    }
+
+    private static InputStream decode(HttpResponse<byte[]> response) throws IOException {
+        InputStream body = new ByteArrayInputStream(response.body());
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity").trim();
+        switch (encoding.toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(body);
+            case "deflate":
+                return new InflaterInputStream(body);
+            case "identity":
+                return body;
+            default:
+                throw new IOException("Unsupported content encoding " + encoding + " for " + response.uri());
+        }
+    }
+
+    /**
+     * Send a request and wait for its response.
+     * @param uri The URI to request.
+     * @param method The HTTP method.
+     * @param headers Headers to send along with the request.
+     * @param body The request body, or null if there is none.
+     * @return A stream to read the decoded response body.
+     * @throws HttpStatusException If the server responded with a non-successful status.
+     * @throws IOException If the request could not be completed, or did not complete within the timeouts.
+     */
+    public InputStream send(URI uri, String method, Map<String, String> headers, String body) throws IOException {
+        HttpResponse<byte[]> response = exchange(uri, method, headers, body, null, null);
+        checkStatus(uri, response);
+        return decode(response);
+    }
+
+    /**
+     * Send a conditional request, and wait for its response.
+     * @param uri The URI to request.
+     * @param method The HTTP method.
+     * @param headers Headers to send along with the request.
+     * @param body The request body, or null if there is none.
+     * @param etag The entity tag of the previously fetched version, or null if unknown.
+     * @param lastModified The last modification date of the previously fetched version, or null if unknown.
+     * @return The fetched file, or an empty optional if the server reported that the previous version is still current.
+     * Only GET requests are conditional : for other methods, the file is always fetched.
+     * @throws HttpStatusException If the server responded with a non-successful status.
+     * @throws IOException If the request could not be completed, or did not complete within the timeouts.
+     */
+    public Optional<FetchedFile> sendIfModified(URI uri, String method, Map<String, String> headers, String body,
+                                                String etag, String lastModified) throws IOException {
+        // For other methods, validators are preconditions for the request to be processed, not a way to skip the
+        // response : the server would refuse the request (412) instead of answering that it was not modified.
+        boolean conditional = "GET".equals(method);
+        HttpResponse<byte[]> response = exchange(uri, method, headers, body,
+                conditional ? etag : null, conditional ? lastModified : null);
+        if(response.statusCode() == 304) {
+            return Optional.empty();
+        }
+        checkStatus(uri, response);
+        return Optional.of(new FetchedFile(decode(response),
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null)
+        ));
+    }
+
+    private static boolean isSuccess(HttpResponse<?> response) {
+        return (response.statusCode() >= 200 && response.statusCode() < 300) || response.statusCode() == 304;
+    }
+
+    /**
+     *
+     * @param response A response.
+     * @return The delay the server asked to wait before retrying, or null if it did not specify one.
+     */
+    private static Duration getRetryAfter(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After").map(value -> {
+            try {
+                return Duration.ofSeconds(Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                // Not a number of seconds : it must be an HTTP date.
+                try {
+                    Duration delay = Duration.between(Instant.now(),
+                            ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                    return delay.isNegative() ? Duration.ZERO : delay;
+                } catch (DateTimeParseException e2) {
+                    return null;
+                }
+            }
+        }).orElse(null);
+    }
+
+    private static void checkStatus(URI uri, HttpResponse<?> response) throws HttpStatusException {
+        if(response.statusCode() < 200 || response.statusCode() >= 300) {
+            throw new HttpStatusException(uri, response.statusCode(), getRetryAfter(response));
+        }
+    }
+
+    /**
+     * Send a single request, once the rate limit of its host allows it.
+     */
+    private HttpResponse<byte[]> exchangeLimited(URI uri, String method, Map<String, String> headers, String body,
+                                                 String etag, String lastModified) throws IOException {
+        if(rateLimit == null) {
+            return exchangeOnce(uri, method, headers, body, etag, lastModified);
+        }
+
+        HostRateLimiter limiter = limiters.computeIfAbsent(uri.getHost(), h -> new HostRateLimiter(h, rateLimit));
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to request " + uri);
+        }
+
+        long start = System.nanoTime();
+        HostRateLimiter.Outcome outcome = HostRateLimiter.Outcome.FAILED;
+        try {
+            HttpResponse<byte[]> response = exchangeOnce(uri, method, headers, body, etag, lastModified);
+            outcome = response.statusCode() == 429 || response.statusCode() == 503
+                    ? HostRateLimiter.Outcome.THROTTLED
+                    : HostRateLimiter.Outcome.SUCCESS;
+            return response;
+        } catch (HttpTimeoutException e) {
+            outcome = HostRateLimiter.Outcome.THROTTLED;
+            throw e;
+        } finally {
+            limiter.release(outcome, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private static void sleep(Duration duration, URI uri) throws InterruptedIOException {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry " + uri);
+        }
+    }
+
+    /**
+     *
+     * @param method An HTTP method.
+     * @return True if sending the same request several times has the same effect as sending it once.
+     */
+    private static boolean isIdempotent(String method) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+            case "TRACE":
+            case "PUT":
+            case "DELETE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Send a request, retrying it as long as it fails and the retry policy allows.
+     * If requests to the host are suspended, wait until they are allowed again.
+     * @return The response to the last attempt, which may have a non-successful status.
+     * @throws IOException If the last attempt could not be completed.
+     */
+    private HttpResponse<byte[]> exchange(URI uri, String method, Map<String, String> headers, String body,
+                                          String etag, String lastModified) throws IOException {
+        CircuitBreaker breaker = breakers.computeIfAbsent(uri.getHost(),
+                h -> new CircuitBreaker(retryPolicy.breakerThreshold, retryPolicy.breakerCooldown));
+        try {
+            breaker.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to request " + uri);
+        }
+
+        boolean outcomeRecorded = false;
+        try {
+            for(int attempt = 1; ; attempt++) {
+                HttpResponse<byte[]> response = null;
+                IOException failure = null;
+                Duration retryAfter = null;
+                try {
+                    response = exchangeLimited(uri, method, headers, body, etag, lastModified);
+                    if(isSuccess(response) || !retryPolicy.isRetryable(response.statusCode())) {
+                        // Even if the server refused the request, it understood it : the host itself is not failing.
+                        breaker.recordSuccess();
+                        outcomeRecorded = true;
+                        return response;
+                    }
+                    retryAfter = getRetryAfter(response);
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    failure = e;
+                }
+
+                // A request which may have been processed by the server must not be sent again.
+                Duration backoff = isIdempotent(method) ? retryPolicy.getBackoff(attempt, retryAfter) : null;
+                if(backoff == null) {
+                    // The request failed for good : this is a single failure of the host, whatever the attempts.
+                    if(breaker.recordFailure()) {
+                        LOG.warn("Too many failures from {}, suspending requests for {}", uri.getHost(),
+                                retryPolicy.breakerCooldown);
+                        ExecutionMonitor.INSTANCE.count("HTTP circuit breaker trips", 1);
+                        ExecutionMonitor.INSTANCE.message("Requests to " + uri.getHost() + " suspended for "
+                                + retryPolicy.breakerCooldown + " after repeated failures");
+                    }
+                    outcomeRecorded = true;
+                    if(failure != null) {
+                        throw failure;
+                    }
+                    return response;
+                }
+
+                LOG.info("Attempt {} for {} failed ({}), retrying in {}", attempt, uri,
+                        failure != null ? failure.getMessage() : "HTTP status " + response.statusCode(), backoff);
+                ExecutionMonitor.INSTANCE.count("HTTP retries", 1);
+                ExecutionMonitor.INSTANCE.count("HTTP backoff time (ms)", backoff.toMillis());
+                sleep(backoff, uri);
+            }
+        } finally {
+            if(!outcomeRecorded) {
+                breaker.release();
+            }
+        }
+    }
+
+    private HttpResponse<byte[]> exchangeOnce(URI uri, String method, Map<String, String> headers, String body,
+                                          String etag, String lastModified) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .method(method, body != null
+                        ? HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)
+                        : HttpRequest.BodyPublishers.noBody())
+                .header("Accept-Encoding", "gzip, deflate");
+        headers.forEach(request::header);
+        if(etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        if(lastModified != null) {
+            request.header("If-Modified-Since", lastModified);
+        }
+
+        CompletableFuture<HttpResponse<byte[]>> exchange =
+                client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        try {
+            // The request timeout only covers the response headers : also bound the time spent reading the body.
+            return exchange.get(readTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            // Abandoned exchanges must not keep their connection while the next attempt is sent.
+            // Cancelling only aborts the underlying exchange from JDK 16 : before that, it merely completes the future.
+            exchange.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting " + uri);
+        } catch (TimeoutException e) {
+            // Same as above : only aborts the exchange from JDK 16.
+            exchange.cancel(true);
+            throw new HttpTimeoutException("No complete response from " + uri + " within " + readTimeout);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to request " + uri, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.unaszole.bible.downloading;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cache store keeping each entry as a separate file in a directory, named after its key.
+ */
+public class LooseFileStore implements CacheStore {
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final Path directory;
+
+    public LooseFileStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    private Path getPath(String key) {
+        return directory.resolve(key);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return Files.exists(getPath(key));
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(getPath(key));
+    }
+
+    @Override
+    public void store(String key, InputStream data) throws IOException {
+        Path targetPath = getPath(key);
+
+        // Write to a temporary file in the same directory, and only move it to the target path once complete.
+        Path tempPath = Files.createTempFile(directory, key, PART_SUFFIX);
+        try {
+            Files.copy(data, tempPath, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(tempPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(getPath(key));
+    }
+
+    @Override
+    public List<String> keys() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .map(p -> p.getFileName().toString())
+                    .filter(name -> !name.endsWith(PART_SUFFIX))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.github.unaszole.bible.downloading;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache store appending all entries to a few large pack files, instead of keeping one file per entry.
+ * <p>
+ * Entries are located through an index file, which records the pack, offset and length of each entry in the order
+ * they were stored. When an entry is stored again or deleted, the latest record wins, and the previous entry is only
+ * reclaimed by {@link #compact()}. A deleted entry is recorded with a negative length. Entries are read from
+ * memory-mapped regions of the pack files, except the entries appended to the current pack after it was mapped, which
+ * are read directly from the file.
+ * <p>
+ * A pack store must only be used by a single process at a time.
+ */
+public class PackFileStore implements CacheStore {
+
+    /**
+     * Name of the sub-directory holding the pack store of a cache directory.
+     */
+    public static final String SUBDIRECTORY = "pack";
+    public static final long DEFAULT_MAX_PACK_SIZE = 256L * 1024 * 1024;
+
+    private static final String INDEX_FILE = "index";
+    private static final String COMPACTED_INDEX_FILE = "index.compacted";
+    private static final String PACK_SUFFIX = ".pack";
+
+    private static class Entry {
+        final int pack;
+        final long offset;
+        final int length;
+
+        Entry(int pack, long offset, int length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads a byte buffer as a stream.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int nbRead = Math.min(len, buffer.remaining());
+            buffer.get(b, off, nbRead);
+            return nbRead;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private final Path directory;
+    private final long maxPackSize;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private FileChannel indexChannel;
+
+    private int currentPackNumber;
+    private FileChannel currentPack;
+
+    /**
+     * Read-only mappings of the pack files, by pack number.
+     */
+    private final Map<Integer, MappedByteBuffer> mappings = new HashMap<>();
+
+    /**
+     *
+     * @param directory The directory containing the pack and index files.
+     * @param maxPackSize The size above which a new pack file is started.
+     */
+    public PackFileStore(Path directory, long maxPackSize) throws IOException {
+        assert maxPackSize > 0 && maxPackSize <= Integer.MAX_VALUE;
+        this.directory = directory;
+        this.maxPackSize = maxPackSize;
+        Files.createDirectories(directory);
+
+        this.indexChannel = openIndex(INDEX_FILE);
+        // Drop any record left incomplete by an interrupted run, so that new records are appended after valid ones.
+        indexChannel.truncate(loadIndex());
+        indexChannel.position(indexChannel.size());
+
+        this.currentPackNumber = index.values().stream().mapToInt(e -> e.pack).max().orElse(0);
+        deletePacksAfter(currentPackNumber);
+        this.currentPack = openPack(currentPackNumber);
+    }
+
+    public PackFileStore(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_PACK_SIZE);
+    }
+
+    private Path getPackPath(int packNumber) {
+        return directory.resolve(String.format("%05d", packNumber) + PACK_SUFFIX);
+    }
+
+    private FileChannel openPack(int packNumber) throws IOException {
+        return FileChannel.open(getPackPath(packNumber),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Delete the packs numbered after the given one. No entry refers to them, but they would be appended to once the
+     * store rolls over to a new pack : they are left by an interrupted compaction, or hold only replaced entries.
+     * @param lastPackNumber The number of the last pack to keep.
+     */
+    private void deletePacksAfter(int lastPackNumber) throws IOException {
+        try (DirectoryStream<Path> packs = Files.newDirectoryStream(directory, "*" + PACK_SUFFIX)) {
+            for (Path pack : packs) {
+                String name = pack.getFileName().toString();
+                try {
+                    if (Integer.parseInt(name.substring(0, name.length() - PACK_SUFFIX.length())) > lastPackNumber) {
+                        Files.delete(pack);
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a pack of this store.
+                }
+            }
+        }
+    }
+
+    private FileChannel openIndex(String fileName) throws IOException {
+        return FileChannel.open(directory.resolve(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Load all complete records of the index file.
+     * @return The length of the index file covered by complete records.
+     */
+    private long loadIndex() throws IOException {
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(INDEX_FILE)));
+        int validLength = 0;
+        while (records.remaining() >= Short.BYTES) {
+            int keyLength = Short.toUnsignedInt(records.getShort());
+            if (records.remaining() < keyLength + Integer.BYTES + Long.BYTES + Integer.BYTES) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            records.get(key);
+            Entry entry = new Entry(records.getInt(), records.getLong(), records.getInt());
+            if (entry.length >= 0) {
+                index.put(new String(key, StandardCharsets.UTF_8), entry);
+            }
+            else {
+                index.remove(new String(key, StandardCharsets.UTF_8));
+            }
+            validLength = records.position();
+        }
+        return validLength;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     *
+     * @return A buffer covering the given entry, or null if the entry was appended to the current pack after it was
+     * mapped.
+     */
+    private synchronized ByteBuffer getMappedEntry(Entry entry) throws IOException {
+        MappedByteBuffer mapping = mappings.get(entry.pack);
+        // A complete pack does not grow anymore : map it again entirely if it grew since it was mapped.
+        // The current pack is only mapped once, as remapping it after each new entry would map it again and again.
+        if (mapping == null || (mapping.capacity() < entry.offset + entry.length && entry.pack != currentPackNumber)) {
+            try (FileChannel pack = FileChannel.open(getPackPath(entry.pack), StandardOpenOption.READ)) {
+                mapping = pack.map(FileChannel.MapMode.READ_ONLY, 0, pack.size());
+            }
+            mappings.put(entry.pack, mapping);
+        }
+        if (mapping.capacity() < entry.offset + entry.length) {
+            return null;
+        }
+        ByteBuffer buffer = mapping.duplicate();
+        buffer.limit((int) (entry.offset + entry.length)).position((int) entry.offset);
+        return buffer.slice();
+    }
+
+    private synchronized ByteBuffer readFromCurrentPack(Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        while (buffer.hasRemaining()) {
+            if (currentPack.read(buffer, entry.offset + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        return buffer.flip();
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            throw new NoSuchFileException(key);
+        }
+        ByteBuffer contents = getMappedEntry(entry);
+        if (contents == null && entry.pack == currentPackNumber) {
+            contents = readFromCurrentPack(entry);
+        }
+        if (contents == null) {
+            throw new IOException("Pack " + getPackPath(entry.pack) + " is truncated, cannot read entry " + key);
+        }
+        return new ByteBufferInputStream(contents);
+    }
+
+    @Override
+    public synchronized void store(String key, InputStream data) throws IOException {
+        append(key, data.readAllBytes());
+    }
+
+    private void append(String key, byte[] contents) throws IOException {
+        if (currentPack.size() > 0 && currentPack.size() + contents.length > maxPackSize) {
+            currentPack.close();
+            currentPack = openPack(++currentPackNumber);
+        }
+
+        // Write the contents durably before indexing them, so that the index never refers to missing data.
+        long offset = currentPack.size();
+        ByteBuffer contentsBuffer = ByteBuffer.wrap(contents);
+        while (contentsBuffer.hasRemaining()) {
+            currentPack.write(contentsBuffer, offset + contentsBuffer.position());
+        }
+        currentPack.force(false);
+
+        Entry entry = new Entry(currentPackNumber, offset, contents.length);
+        writeRecord(key, entry);
+        index.put(key, entry);
+    }
+
+    private void writeRecord(String key, Entry entry) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        assert keyBytes.length <= 0xFFFF;
+        ByteBuffer record = ByteBuffer.allocate(Short.BYTES + keyBytes.length + Integer.BYTES + Long.BYTES + Integer.BYTES);
+        record.putShort((short) keyBytes.length).put(keyBytes)
+                .putInt(entry.pack).putLong(entry.offset).putInt(entry.length)
+                .flip();
+        while (record.hasRemaining()) {
+            indexChannel.write(record);
+        }
+    }
+
+    @Override
+    public synchronized void delete(String key) throws IOException {
+        if (index.containsKey(key)) {
+            writeRecord(key, new Entry(currentPackNumber, 0, -1));
+            index.remove(key);
+        }
+    }
+
+    @Override
+    public List<String> keys() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    /**
+     * Rewrite the current entries into new packs, to reclaim the space used by entries stored again or deleted since.
+     * The new packs are numbered after the existing ones, and the existing ones are only deleted once the new index
+     * replaced the previous one : an interrupted compaction leaves the store usable.
+     * <p>
+     * This store must not be used by other threads during the compaction.
+     * @return The number of bytes reclaimed.
+     * @throws IOException If the store could not be compacted.
+     */
+    public synchronized long compact() throws IOException {
+        int lastPackNumber = currentPackNumber;
+        long packsSize = 0;
+        for (int packNumber = 0; packNumber <= lastPackNumber; packNumber++) {
+            Path packPath = getPackPath(packNumber);
+            packsSize += Files.exists(packPath) ? Files.size(packPath) : 0;
+        }
+        long entriesSize = index.values().stream().mapToLong(e -> e.length).sum();
+        if (entriesSize == packsSize) {
+            return 0;
+        }
+
+        // Copy the entries in the order they are laid out in the packs.
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(index.entrySet());
+        entries.sort(Comparator.comparingInt((Map.Entry<String, Entry> e) -> e.getValue().pack)
+                .thenComparingLong(e -> e.getValue().offset));
+
+        FileChannel previousIndexChannel = indexChannel;
+        currentPack.close();
+        currentPackNumber = lastPackNumber + 1;
+        currentPack = openPack(currentPackNumber);
+        currentPack.truncate(0);
+        indexChannel = openIndex(COMPACTED_INDEX_FILE);
+        indexChannel.truncate(0);
+        for (Map.Entry<String, Entry> e : entries) {
+            byte[] contents;
+            try (InputStream in = open(e.getKey())) {
+                contents = in.readAllBytes();
+            }
+            append(e.getKey(), contents);
+        }
+        indexChannel.force(false);
+        indexChannel.close();
+        previousIndexChannel.close();
+
+        Files.move(directory.resolve(COMPACTED_INDEX_FILE), directory.resolve(INDEX_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexChannel = openIndex(INDEX_FILE);
+        indexChannel.position(indexChannel.size());
+
+        for (int packNumber = 0; packNumber <= lastPackNumber; packNumber++) {
+            mappings.remove(packNumber);
+            Files.deleteIfExists(getPackPath(packNumber));
+        }
+        return packsSize - entriesSize;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        currentPack.close();
+        indexChannel.close();
+        mappings.clear();
+    }
+}
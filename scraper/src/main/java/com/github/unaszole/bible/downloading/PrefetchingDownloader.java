@@ -0,0 +1,145 @@
+package com.github.unaszole.bible.downloading;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cached downloader which downloads announced source files ahead of time, on a pool of worker threads.
+ * <p>
+ * Source files must be announced in the order they will be requested. Each time a source file is requested, the
+ * downloader makes sure that the next announced files (up to the lookahead depth) are being downloaded in background,
+ * so that they are already present in the cache when the parser reaches them.
+ */
+public class PrefetchingDownloader extends CachedDownloader {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PrefetchingDownloader.class);
+
+	private final ExecutorService workers;
+	private final int lookahead;
+
+	/**
+	 * Announced source files not requested yet, in the order they are expected to be requested.
+	 */
+	private final List<SourceFile> announced = new ArrayList<>();
+	/**
+	 * Downloads submitted to the workers and not requested yet, by hash of their source file.
+	 */
+	private final Map<String, CompletableFuture<Void>> downloads = new HashMap<>();
+	/**
+	 * Index of the next announced source file to submit to the workers.
+	 */
+	private int nextToSubmit = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 *
+	 * @param store The store in which to keep the downloaded files.
+	 * @param timeToLive The duration after which a cached file must be revalidated, or null if cached files never
+	 *                   expire.
+	 * @param negativeTimeToLive The duration after which a negative result expires.
+	 * @param parallelism The maximum number of files downloaded at the same time.
+	 * @param lookahead The maximum number of files to download ahead of the last requested file.
+	 */
+	public PrefetchingDownloader(CacheStore store, Duration timeToLive, Duration negativeTimeToLive,
+								 int parallelism, int lookahead) {
+		super(store, timeToLive, negativeTimeToLive);
+		assert parallelism > 0 && lookahead > 0;
+		this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+			Thread thread = new Thread(r, "prefetch");
+			// Pending downloads must never prevent the program from exiting.
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.lookahead = lookahead;
+	}
+
+	@Override
+	public synchronized void announce(List<SourceFile> sources) {
+		announced.addAll(sources);
+		submitUpToLookahead();
+	}
+
+	private void submitUpToLookahead() {
+		while(nextToSubmit < announced.size() && nextToSubmit < lookahead) {
+			final SourceFile source = announced.get(nextToSubmit++);
+			downloads.computeIfAbsent(source.getHash(), h -> CompletableFuture.runAsync(() -> {
+				// Downloads still queued when the downloader is closed are not needed anymore.
+				if(!closed) {
+					PrefetchingDownloader.super.fetch(source);
+				}
+			}, workers));
+		}
+	}
+
+	/**
+	 * Drop the announced files up to the requested one, which are not expected to be requested anymore.
+	 * @param hash The hash of the requested source file.
+	 */
+	private void dropUpTo(String hash) {
+		// Announced files are requested in order : look for the requested one from the start.
+		for(int i = 0; i < announced.size(); i++) {
+			if(Objects.equals(announced.get(i).getHash(), hash)) {
+				List<SourceFile> consumed = announced.subList(0, i + 1);
+				consumed.forEach(s -> downloads.remove(s.getHash()));
+				nextToSubmit = Math.max(nextToSubmit - consumed.size(), 0);
+				consumed.clear();
+				return;
+			}
+		}
+	}
+
+	@Override
+	public long fetch(SourceFile source) {
+		String hash = source.getHash();
+
+		CompletableFuture<Void> download;
+		synchronized (this) {
+			download = downloads.get(hash);
+			dropUpTo(hash);
+			submitUpToLookahead();
+		}
+
+		if(download == null) {
+			// This file was not announced (or is too far ahead) : download it right away.
+			return super.fetch(source);
+		}
+
+		LOG.debug("Waiting for prefetched {}", source);
+		try {
+			download.join();
+			// Downloaded by a worker, not by this call.
+			return 0;
+		}
+		catch (CompletionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Stop prefetching. Downloads in progress are completed, but queued ones are dropped.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		workers.shutdown();
+		try {
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		super.close();
+	}
+}
@@ -0,0 +1,22 @@
+package com.github.unaszole.bible.downloading;
+
+/**
+ * Upper bounds for the requests sent to each host. The actual rate and concurrency adapt below these bounds, depending
+ * on how the host responds.
+ */
+public class RateLimit {
+    /**
+     * Maximum number of requests started per second.
+     */
+    public final double maxRequestsPerSecond;
+    /**
+     * Maximum number of requests in progress at the same time.
+     */
+    public final int maxConcurrency;
+
+    public RateLimit(double maxRequestsPerSecond, int maxConcurrency) {
+        assert maxRequestsPerSecond > 0 && maxConcurrency >= 1;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.maxConcurrency = maxConcurrency;
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.unaszole.bible.downloading;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Specifies how failed HTTP requests are retried, and when requests to a failing host are suspended.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(60);
+    public static final int DEFAULT_BREAKER_THRESHOLD = 5;
+    public static final Duration DEFAULT_BREAKER_COOLDOWN = Duration.ofSeconds(60);
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF,
+            DEFAULT_MAX_BACKOFF, DEFAULT_BREAKER_THRESHOLD, DEFAULT_BREAKER_COOLDOWN);
+
+    /**
+     * Never retry, and never suspend requests.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO,
+            Integer.MAX_VALUE, Duration.ZERO);
+
+    /**
+     * Statuses indicating a failure that may not happen again on a later attempt.
+     */
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+
+    public final int maxAttempts;
+    public final Duration initialBackoff;
+    public final Duration maxBackoff;
+    public final int breakerThreshold;
+    public final Duration breakerCooldown;
+
+    /**
+     *
+     * @param maxAttempts Maximum number of attempts for each request, including the first one.
+     * @param initialBackoff Time to wait before the first retry. It is doubled for each subsequent retry.
+     * @param maxBackoff Maximum time to wait before a retry. If the server asks to wait longer, the request fails.
+     * @param breakerThreshold Number of consecutive failed requests to a host after which requests to this host are
+     *                         suspended.
+     * @param breakerCooldown How long requests to a failing host are suspended.
+     */
+    public RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff,
+                       int breakerThreshold, Duration breakerCooldown) {
+        assert maxAttempts >= 1 && breakerThreshold >= 1;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.breakerThreshold = breakerThreshold;
+        this.breakerCooldown = breakerCooldown;
+    }
+
+    /**
+     *
+     * @param statusCode An HTTP response status.
+     * @return True if a request failing with this status may be retried.
+     */
+    public boolean isRetryable(int statusCode) {
+        return RETRYABLE_STATUSES.contains(statusCode);
+    }
+
+    /**
+     *
+     * @param failedAttempts The number of attempts that failed so far.
+     * @param retryAfter The delay requested by the server before retrying, or null if none.
+     * @return The time to wait before the next attempt, or null if the request should not be retried.
+     */
+    public Duration getBackoff(int failedAttempts, Duration retryAfter) {
+        if (failedAttempts >= maxAttempts || (retryAfter != null && retryAfter.compareTo(maxBackoff) > 0)) {
+            return null;
+        }
+
+        // Exponential backoff with random jitter, so that concurrent requests do not all retry at the same time.
+        long ceilingMillis = Math.min(maxBackoff.toMillis(),
+                initialBackoff.toMillis() << Math.min(failedAttempts - 1, 30));
+        Duration backoff = Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceilingMillis / 2, ceilingMillis + 1));
+
+        return retryAfter != null && retryAfter.compareTo(backoff) > 0 ? retryAfter : backoff;
+    }
+}
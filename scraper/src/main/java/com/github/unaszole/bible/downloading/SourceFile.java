@@ -38,4 +38,16 @@ public interface SourceFile {
      * @throws IOException If anything prevented to read the source file.
      */
     InputStream openStream() throws IOException;
+
+    /**
+     * Fetch the source file, unless it was not modified since a previously fetched version.
+     * Source files which cannot tell whether they were modified are always fetched.
+     * @param etag The entity tag of the previously fetched version, or null if unknown.
+     * @param lastModified The last modification date of the previously fetched version, or null if unknown.
+     * @return The fetched file, or an empty optional if the previously fetched version is still current.
+     * @throws IOException If anything prevented to read the source file.
+     */
+    default Optional<FetchedFile> fetchIfModified(String etag, String lastModified) throws IOException {
+        return Optional.of(new FetchedFile(openStream(), null, null));
+    }
 }
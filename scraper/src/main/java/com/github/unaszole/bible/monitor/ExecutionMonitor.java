@@ -1,8 +1,14 @@
 package com.github.unaszole.bible.monitor;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
+/**
+ * Tracks the progress of a run, and collects its warnings and statistics. May be used from several threads.
+ */
 public class ExecutionMonitor {
     public static final ExecutionMonitor INSTANCE = new ExecutionMonitor();
 
@@ -28,6 +34,7 @@ public class ExecutionMonitor {
         public int completedItems = 0;
         public String lastStartedItem = null;
         public Map<String, Set<String>> messages = new HashMap<>();
+        public Map<String, String> indicators = new ConcurrentHashMap<>();
 
         @Override
         public Status clone() {
@@ -37,7 +44,10 @@ public class ExecutionMonitor {
                 clone.startedItems = startedItems;
                 clone.completedItems = completedItems;
                 clone.lastStartedItem = lastStartedItem;
-                clone.messages = Collections.unmodifiableMap(messages);
+                Map<String, Set<String>> messagesCopy = new HashMap<>();
+                messages.forEach((item, itemMessages) -> messagesCopy.put(item, Collections.unmodifiableSet(new HashSet<>(itemMessages))));
+                clone.messages = Collections.unmodifiableMap(messagesCopy);
+                clone.indicators = Collections.unmodifiableMap(new TreeMap<>(indicators));
                 return clone;
             } catch (CloneNotSupportedException e) {
                 throw new AssertionError();
@@ -46,35 +56,109 @@ public class ExecutionMonitor {
     }
 
     private final Status currentStatus = new Status();
-    private final Collection<Consumer<Status>> callbacks = new ArrayList<>();
+    /**
+     * The item last started by each thread, since several items may be processed at the same time.
+     */
+    private final ThreadLocal<String> currentItem = new ThreadLocal<>();
+    /**
+     * The messages recorded by each thread while capturing them, see {@link #captureMessages(Runnable)}.
+     */
+    private final ThreadLocal<List<String>> capturedMessages = new ThreadLocal<>();
+    private final Collection<Consumer<Status>> callbacks = new CopyOnWriteArrayList<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
 
     public void registerUpdateCallback(Consumer<Status> callback) {
         this.callbacks.add(callback);
     }
+    /**
+     * Must be called while holding the lock on this monitor, so that the status is not modified while copied.
+     */
     private void notifyUpdates() {
         this.callbacks.forEach(c -> c.accept(currentStatus.clone()));
     }
-    public Item register(String name) {
+    public synchronized Item register(String name) {
         Item item = new Item(name);
         currentStatus.registeredItems++;
         notifyUpdates();
         return item;
     }
-    private void start(Item item) {
+    private synchronized void start(Item item) {
         currentStatus.startedItems++;
         currentStatus.lastStartedItem = item.name;
+        currentItem.set(item.name);
         notifyUpdates();
     }
-    private void complete(Item item) {
+    private synchronized void complete(Item item) {
         currentStatus.completedItems++;
+        if(item.name.equals(currentItem.get())) {
+            currentItem.remove();
+        }
         notifyUpdates();
     }
-    public void message(String str) {
+    /**
+     * Set the current value of a named indicator, displayed along with the progress. May be called from any thread.
+     * @param indicator The name of the indicator.
+     * @param value The current value.
+     */
+    public void indicate(String indicator, String value) {
+        currentStatus.indicators.put(indicator, value);
+    }
+    /**
+     * Record a warning about the item being processed by the calling thread, or about the last started item if this
+     * thread is not processing any.
+     * @param str The warning.
+     */
+    public synchronized void message(String str) {
+        String item = Optional.ofNullable(currentItem.get()).orElse(currentStatus.lastStartedItem);
         currentStatus.messages
-                .computeIfAbsent(currentStatus.lastStartedItem, k -> new HashSet<>())
+                .computeIfAbsent(item, k -> new HashSet<>())
                 .add(str);
+        List<String> captured = capturedMessages.get();
+        if(captured != null) {
+            captured.add(str);
+        }
+    }
+    /**
+     * Run an action, and collect the messages it records from the calling thread. The messages are still recorded
+     * as usual.
+     * @param action The action to run.
+     * @return The messages recorded by the action, in order.
+     */
+    public List<String> captureMessages(Runnable action) {
+        List<String> previous = capturedMessages.get();
+        List<String> captured = new ArrayList<>();
+        capturedMessages.set(captured);
+        try {
+            action.run();
+        }
+        finally {
+            if(previous != null) {
+                // Nested captures : the enclosing one receives the messages too.
+                previous.addAll(captured);
+                capturedMessages.set(previous);
+            }
+            else {
+                capturedMessages.remove();
+            }
+        }
+        return captured;
+    }
+    /**
+     * Add an amount to a named counter, reported in the run statistics. May be called from any thread.
+     * @param counter The name of the counter.
+     * @param amount The amount to add.
+     */
+    public void count(String counter, long amount) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+    }
+    public void printStatistics() {
+        if(!counters.isEmpty()) {
+            System.out.println("== STATISTICS ==");
+        }
+
+        new TreeMap<>(counters).forEach((counter, value) -> System.out.println(counter + " : " + value.sum()));
     }
-    public void printMessages() {
+    public synchronized void printMessages() {
         if(!currentStatus.messages.isEmpty()) {
             System.out.println("== WARNINGS ==");
         }
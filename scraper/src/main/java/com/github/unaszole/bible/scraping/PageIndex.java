@@ -0,0 +1,209 @@
+package com.github.unaszole.bible.scraping;
+
+import com.github.unaszole.bible.datamodel.ContextMetadata;
+import com.github.unaszole.bible.datamodel.ContextType;
+import com.github.unaszole.bible.stream.ContextEvent;
+import com.github.unaszole.bible.stream.ContextStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Index of the pages of a document in which each of its contexts of a given type was found, so that later requests
+ * for one of these contexts only download and parse the pages they need.
+ * <p>
+ * The index is recorded the first time the document is fully parsed, and kept in a properties file. It is only valid
+ * for documents whose pages may be parsed on their own from the root context of the document : an indexed context
+ * must not depend on the pages before the first one it was found in.
+ */
+public class PageIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageIndex.class);
+
+    /**
+     * Property holding the identifiers of the pages the index was recorded from.
+     */
+    private static final String PAGES_PROPERTY = "pages";
+
+    /**
+     * A range of pages, by index in the list of pages of the document.
+     */
+    public static class Range {
+        /**
+         * Index of the first page, included.
+         */
+        public final int first;
+        /**
+         * Index of the last page, included.
+         */
+        public final int last;
+
+        public Range(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        static Range parse(String range) {
+            String[] bounds = range.split("-");
+            return new Range(Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]));
+        }
+
+        @Override
+        public String toString() {
+            return first + "-" + last;
+        }
+    }
+
+    private final Path file;
+    private final String pages;
+    private final ContextType indexedType;
+    /**
+     * The recorded ranges, by indexed context, loaded on first use.
+     */
+    private volatile Map<String, Range> ranges = null;
+
+    /**
+     *
+     * @param file The file in which the index is kept.
+     * @param pageIds Identifiers of all the pages of the document, in order. If they change, the recorded index is
+     *                ignored.
+     * @param indexedType The type of the contexts to index.
+     */
+    public PageIndex(Path file, List<String> pageIds, ContextType indexedType) {
+        this.file = file;
+        this.pages = String.join(" ", pageIds);
+        this.indexedType = indexedType;
+    }
+
+    private Map<String, Range> load() {
+        Map<String, Range> loaded = new HashMap<>();
+        try(Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Properties props = new Properties();
+            props.load(reader);
+            if(pages.equals(props.getProperty(PAGES_PROPERTY))) {
+                for(String key: props.stringPropertyNames()) {
+                    if(!key.equals(PAGES_PROPERTY)) {
+                        loaded.put(key, Range.parse(props.getProperty(key)));
+                    }
+                }
+            }
+            else {
+                LOG.debug("Ignoring page index {} recorded from other pages", file);
+            }
+        }
+        catch (NoSuchFileException e) {
+            // Not recorded yet.
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable page index {}", file, e);
+        }
+        return loaded;
+    }
+
+    private void save(Map<String, Range> recorded) {
+        Properties props = new Properties();
+        props.setProperty(PAGES_PROPERTY, pages);
+        recorded.forEach((key, range) -> props.setProperty(key, range.toString()));
+        try {
+            Files.createDirectories(file.getParent());
+            // Write to a temporary file first, so that an interrupted write never leaves a partial index.
+            Path tempPath = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".part");
+            try(Writer writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+                props.store(writer, null);
+            }
+            Files.move(tempPath, file, StandardCopyOption.REPLACE_EXISTING);
+            ranges = recorded;
+        }
+        catch (IOException e) {
+            // Failing to save the index only means that the document will be fully parsed again.
+            LOG.warn("Could not save page index {}", file, e);
+        }
+    }
+
+    /**
+     *
+     * @param meta The metadata of an indexed context.
+     * @return The range of pages containing this context, or an empty optional if it is not indexed.
+     */
+    public Optional<Range> getPages(ContextMetadata meta) {
+        Map<String, Range> result = ranges;
+        if(result == null) {
+            result = load();
+            ranges = result;
+        }
+        return Optional.ofNullable(result.get(meta.toString()));
+    }
+
+    /**
+     * Records the index while a document is fully parsed. A recorder follows a single parsing : the pages must be
+     * entered from the thread consuming the recorded stream, as the parser reaches them.
+     */
+    public class Recorder {
+        private final Map<String, Range> recorded = new HashMap<>();
+        private final Map<String, Integer> openFirstPages = new HashMap<>();
+        private int currentPage = 0;
+        private int previousEventPage = 0;
+        private int depth = 0;
+
+        /**
+         * Notify that the parser starts reading a page.
+         * @param pageNb The index of the page in the list of pages of the document.
+         */
+        public void enterPage(int pageNb) {
+            currentPage = pageNb;
+        }
+
+        private void onEvent(ContextEvent event) {
+            if(event.type == ContextEvent.Type.OPEN) {
+                depth++;
+                if(event.metadata.type == indexedType) {
+                    // The parser may read ahead before opening a context : start from the page of the previous event,
+                    // which cannot be after the page the context starts in.
+                    openFirstPages.put(event.metadata.toString(), previousEventPage);
+                }
+            }
+            else {
+                depth--;
+                Integer firstPage = openFirstPages.remove(event.metadata.toString());
+                if(firstPage != null) {
+                    recorded.put(event.metadata.toString(), new Range(firstPage, currentPage));
+                }
+                if(depth == 0) {
+                    // The root context is closed : the whole document was parsed.
+                    save(recorded);
+                }
+            }
+            previousEventPage = currentPage;
+        }
+
+        /**
+         * @param stream The stream of the fully parsed document.
+         * @return The same stream, recording the index as it is consumed. The index is saved once the stream is
+         * consumed up to the end.
+         */
+        public ContextStream.Single record(ContextStream.Single stream) {
+            return new ContextStream.Single(stream.firstRoot, stream.getStream().peek(this::onEvent));
+        }
+    }
+
+    /**
+     *
+     * @return A new recorder to record this index.
+     */
+    public Recorder newRecorder() {
+        return new Recorder();
+    }
+}
@@ -2,17 +2,22 @@ package com.github.unaszole.bible.scraping;
 
 import com.github.unaszole.bible.datamodel.contexttypes.BibleContainers;
 import com.github.unaszole.bible.datamodel.idtypes.BibleIdFields;
+import com.github.unaszole.bible.downloading.CachedDownloader;
+import com.github.unaszole.bible.downloading.SourceFile;
 import com.github.unaszole.bible.parsing.Context;
 import com.github.unaszole.bible.datamodel.ContextMetadata;
 import com.github.unaszole.bible.writing.datamodel.DocumentMetadata;
 import com.github.unaszole.bible.stream.ContextStream;
 import org.crosswire.jsword.versification.BibleBook;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
-public abstract class Scraper {
+public abstract class Scraper implements Closeable {
 
 	public static class Help {
 		public final String description;
@@ -36,6 +41,27 @@ public abstract class Scraper {
 	 */
 	protected abstract ContextStream.Single getContextStreamFor(ContextMetadata rootContextMeta);
 
+	/**
+	 *
+	 * @return The downloader through which this scraper fetches its source files, or null if it does not support
+	 * fetching them ahead of time.
+	 */
+	protected CachedDownloader getDownloader() {
+		return null;
+	}
+
+	/**
+	 * List the source files required for a context, without fetching them.
+	 * Scrapers which discover some of their source files while parsing others cannot list them, and should not
+	 * override this method.
+	 * @param rootContextMeta Metadata for a requested root context.
+	 * @return The source files to fetch for the requested context, in the order they will be requested, or null.
+	 * If null, the scraper will try to list the source files of a parent context.
+	 */
+	protected List<SourceFile> getSourceFilesFor(ContextMetadata rootContextMeta) {
+		return null;
+	}
+
 	/**
 	 * Utility method for scrapers to automatically generate a book from its chapters.
 	 * This should be used only if we don't need to fetch a book introduction.
@@ -99,4 +125,41 @@ public abstract class Scraper {
 
 		return contextStream.extractStream(wantedContext);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Download all the source files required for a context into the cache, without parsing them.
+	 * @param wantedContext The wanted context.
+	 * @param parallelism The maximum number of files downloaded at the same time.
+	 * @return A summary of the downloads, or an empty optional if this scraper cannot list its source files ahead of
+	 * time.
+	 */
+	public final Optional<CachedDownloader.FetchReport> prefetch(ContextMetadata wantedContext, int parallelism) {
+		CachedDownloader downloader = getDownloader();
+		if(downloader == null) {
+			return Optional.empty();
+		}
+
+		List<SourceFile> sourceFiles = getSourceFilesFor(wantedContext);
+		ContextMetadata rootContextMeta = wantedContext;
+		while(sourceFiles == null && rootContextMeta != null) {
+			rootContextMeta = getAncestor(rootContextMeta);
+			sourceFiles = rootContextMeta != null ? getSourceFilesFor(rootContextMeta) : null;
+		}
+		if(sourceFiles == null) {
+			return Optional.empty();
+		}
+
+		return Optional.of(downloader.fetchAll(sourceFiles, parallelism));
+	}
+
+	/**
+	 * Release the resources held by this scraper, such as its downloader. It must not be used anymore afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		CachedDownloader downloader = getDownloader();
+		if(downloader != null) {
+			downloader.close();
+		}
+	}
+}
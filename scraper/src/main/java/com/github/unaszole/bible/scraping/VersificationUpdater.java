@@ -3,7 +3,6 @@ package com.github.unaszole.bible.scraping;
 import com.github.unaszole.bible.datamodel.ContextMetadata;
 import com.github.unaszole.bible.datamodel.contexttypes.BibleContainers;
 import com.github.unaszole.bible.datamodel.idtypes.BibleIdFields;
-import com.github.unaszole.bible.stream.ContextEvent;
 import com.github.unaszole.bible.stream.ContextStreamEditor;
 import org.crosswire.jsword.versification.BibleBook;
 
@@ -27,7 +26,7 @@ public class VersificationUpdater extends ContextStreamEditor.ContextUpdater {
 
     public VersificationUpdater chapterValue(Function<ContextMetadata, String> chapterValueUpdater) {
         this.chapterValueUpdater = chapterValueUpdater;
-        return this;
+        return registerValueUpdater();
     }
 
     public VersificationUpdater verseNbs(Function<ContextMetadata, List<Integer>> verseNbsUpdater) {
@@ -36,24 +35,21 @@ public class VersificationUpdater extends ContextStreamEditor.ContextUpdater {
 
     public VersificationUpdater verseValue(Function<ContextMetadata, String> verseValueUpdater) {
         this.verseValueUpdater = verseValueUpdater;
-        return this;
+        return registerValueUpdater();
     }
 
-    @Override
-    public ContextEvent apply(ContextEvent e) {
-        if (chapterValueUpdater != null || verseValueUpdater != null) {
-            // If we have any value updater, register it.
-            value((m, v) -> {
-                if (m.type == BibleContainers.CHAPTER && chapterValueUpdater != null) {
-                    return Optional.of(chapterValueUpdater.apply(m));
-                }
-                if (m.type == BibleContainers.VERSE && verseValueUpdater != null) {
-                    return Optional.of(verseValueUpdater.apply(m));
-                }
-                return Optional.empty();
-            });
+    private Optional<?> updateValue(ContextMetadata m, Object v) {
+        if (m.type == BibleContainers.CHAPTER && chapterValueUpdater != null) {
+            return Optional.of(chapterValueUpdater.apply(m));
         }
+        if (m.type == BibleContainers.VERSE && verseValueUpdater != null) {
+            return Optional.of(verseValueUpdater.apply(m));
+        }
+        return Optional.empty();
+    }
 
-        return super.apply(e);
+    private VersificationUpdater registerValueUpdater() {
+        // Registered once, as soon as we have any value updater, rather than for each updated event.
+        return (VersificationUpdater) value(this::updateValue);
     }
 }
@@ -12,6 +12,7 @@ import com.github.unaszole.bible.datamodel.ContextType;
 import com.github.unaszole.bible.datamodel.contexttypes.BibleContainers;
 import com.github.unaszole.bible.datamodel.contexttypes.FlatText;
 import com.github.unaszole.bible.scraping.generic.data.Bible;
+import com.github.unaszole.bible.scraping.generic.data.DownloadConfig;
 import com.github.unaszole.bible.scraping.generic.data.PatternContainer;
 import com.github.unaszole.bible.scraping.generic.parsing.TextParser;
 import com.github.unaszole.bible.scraping.generic.parsing.html.EvaluatorWrapper;
@@ -111,6 +112,7 @@ public class Config {
     public List<String> inputs;
     public Bible bible;
     public List<NamedTextParser> parsers;
+    public DownloadConfig download = new DownloadConfig();
 
     public PatternContainer getGlobalDefaults(List<String> inputValues) {
         int nbExpectedFlags = inputs == null ? 0 : inputs.size();
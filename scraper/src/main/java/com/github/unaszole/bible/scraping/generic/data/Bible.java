@@ -24,6 +24,10 @@ public class Bible extends PagesContainer {
      * Configuration for a stream editor.
      */
     public List<StreamEditorConfig> edit;
+    /**
+     * True to let the {@link #edit} entries apply in any order, instead of in the order of the document.
+     */
+    public boolean editInAnyOrder = false;
 
     public DocumentMetadata getDocMeta(PatternContainer globalDefaults) {
         final PatternContainer bibleDefaults = this.defaultedBy(globalDefaults);
@@ -64,6 +68,11 @@ public class Bible extends PagesContainer {
         assert bibleCtxMeta.type == BibleContainers.BIBLE;
         final PatternContainer bibleDefaults = this.defaultedBy(globalDefaults);
 
+        // Build the stream for the bible pages first, as they come before the books in document order.
+        Context bibleCtx = new Context(bibleCtxMeta);
+        List<PageData> biblePages = getBiblePages(bibleDefaults, sourceFileBuilder);
+        ContextStream.Single biblePagesStream = biblePages.isEmpty() ? null : ctxStreamer.apply(bibleCtx, biblePages);
+
         // Build the list of context streams for all books, to append to the bible page stream.
         List<ContextStream.Single> bookStreams;
         if(books != null && !books.isEmpty()) {
@@ -80,13 +89,10 @@ public class Bible extends PagesContainer {
         }
 
         // Build the bible stream.
-        Context bibleCtx = new Context(bibleCtxMeta);
         ContextStream.Single bibleStream = null;
-
-        List<PageData> biblePages = getBiblePages(bibleDefaults, sourceFileBuilder);
-        if(!biblePages.isEmpty()) {
-            // We have pages for this bible, prepare a context with the given streamer and append books at the end.
-            bibleStream = ctxStreamer.apply(bibleCtx, biblePages).edit().inject(
+        if(biblePagesStream != null) {
+            // We have pages for this bible, append books at the end.
+            bibleStream = biblePagesStream.edit().inject(
                     ContextStreamEditor.InjectionPosition.AT_END, bibleCtxMeta, bookStreams
             ).process();
         }
@@ -98,6 +104,9 @@ public class Bible extends PagesContainer {
         // Configure editor if provided and we have a bible to return.
         if(bibleStream != null && edit != null) {
             ContextStreamEditor<ContextStream.Single> editor = bibleStream.edit();
+            if(editInAnyOrder) {
+                editor.inAnyOrder();
+            }
             for(StreamEditorConfig cfg: edit) {
                 cfg.configureEditor(editor, null, 0);
             }
@@ -43,6 +43,10 @@ public class Book extends PagesContainer {
      * Configuration for a stream editor.
      */
     public List<StreamEditorConfig> edit;
+    /**
+     * True to let the {@link #edit} entries apply in any order, instead of in the order of the document.
+     */
+    public boolean editInAnyOrder = false;
 
     public ChapterSeq getChapterSeq(int chapterNb) {
         if(chapters == null) {
@@ -66,6 +70,11 @@ public class Book extends PagesContainer {
         assert bookCtxMeta.type == BibleContainers.BOOK && bookCtxMeta.id.get(BibleIdFields.BOOK) == osis;
         final PatternContainer bookDefaults = this.defaultedBy(bibleDefaults);
 
+        // Build the stream for the book pages first, as they come before the chapters in document order.
+        Context bookCtx = new Context(bookCtxMeta, bookCtxMeta.id.get(BibleIdFields.BOOK).getOSIS());
+        List<PageData> bookPages = getBookPages(bookDefaults, sourceFileBuilder);
+        ContextStream.Single bookPagesStream = bookPages.isEmpty() ? null : ctxStreamer.apply(bookCtx, bookPages);
+
         // Build the list of context streams for all chapters, to append to the book page stream.
         List<ContextStream.Single> chapterStreams;
         if(chapters != null && !chapters.isEmpty()) {
@@ -88,13 +97,10 @@ public class Book extends PagesContainer {
         }
 
         // Build the book stream.
-        Context bookCtx = new Context(bookCtxMeta, bookCtxMeta.id.get(BibleIdFields.BOOK).getOSIS());
         ContextStream.Single bookStream = null;
-
-        List<PageData> bookPages = getBookPages(bookDefaults, sourceFileBuilder);
-        if(!bookPages.isEmpty()) {
-            // We have pages for this book, prepare a context with the given streamer and append chapters at the end.
-            bookStream = ctxStreamer.apply(bookCtx, bookPages).edit().inject(
+        if(bookPagesStream != null) {
+            // We have pages for this book, append chapters at the end.
+            bookStream = bookPagesStream.edit().inject(
                     ContextStreamEditor.InjectionPosition.AT_END, bookCtxMeta, chapterStreams
             ).process();
         }
@@ -106,6 +112,9 @@ public class Book extends PagesContainer {
         // Configure editor if provided and we have a book to return.
         if(bookStream != null && edit != null) {
             ContextStreamEditor<ContextStream.Single> editor = bookStream.edit();
+            if(editInAnyOrder) {
+                editor.inAnyOrder();
+            }
             for(StreamEditorConfig cfg: edit) {
                 cfg.configureEditor(editor, bookCtxMeta.id.get(BibleIdFields.BOOK), 0);
             }
@@ -41,6 +41,10 @@ public class ChapterSeq extends PagesContainer {
      * Configuration for a stream editor.
      */
     public List<StreamEditorConfig> edit;
+    /**
+     * True to let the {@link #edit} entries apply in any order, instead of in the order of the document.
+     */
+    public boolean editInAnyOrder = false;
 
     private static final Pattern CHAPTER_EXPR = Pattern.compile("^=\\s*([^\\s]+)\\s*(([+-])\\s*([^\\s]+)\\s*)?$");
 
@@ -122,6 +126,9 @@ public class ChapterSeq extends PagesContainer {
             // Configure editor if provided.
             if(edit != null) {
                 ContextStreamEditor<ContextStream.Single> editor = chapterStream.edit();
+                if(editInAnyOrder) {
+                    editor.inAnyOrder();
+                }
                 for(StreamEditorConfig cfg: edit) {
                     cfg.configureEditor(editor, chapterBook, chapterNb);
                 }
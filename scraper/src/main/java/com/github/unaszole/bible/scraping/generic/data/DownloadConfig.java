@@ -0,0 +1,182 @@
+package com.github.unaszole.bible.scraping.generic.data;
+
+import com.github.unaszole.bible.downloading.CacheStore;
+import com.github.unaszole.bible.downloading.CachedDownloader;
+import com.github.unaszole.bible.downloading.CompressingStore;
+import com.github.unaszole.bible.downloading.HttpTransport;
+import com.github.unaszole.bible.downloading.LooseFileStore;
+import com.github.unaszole.bible.downloading.PackFileStore;
+import com.github.unaszole.bible.downloading.PrefetchingDownloader;
+import com.github.unaszole.bible.downloading.RateLimit;
+import com.github.unaszole.bible.downloading.RetryPolicy;
+import com.github.unaszole.bible.scraping.generic.parsing.ParsedPageCache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Specifies how the pages of a generic scraper are downloaded.
+ */
+public class DownloadConfig {
+    /**
+     * Subdirectory of the cache directory where the parsed pages are kept.
+     */
+    private static final String PARSED_PAGES_SUBDIRECTORY = "parsed";
+
+    public enum CacheFormat {
+        /**
+         * One file per downloaded page.
+         */
+        FILES,
+        /**
+         * Downloaded pages appended to a few large pack files.
+         */
+        PACK
+    }
+
+    /**
+     * How downloaded pages are stored in the cache directory. Defaults to {@link CacheFormat#FILES}.
+     */
+    public CacheFormat cacheFormat = CacheFormat.FILES;
+
+    /**
+     * True to compress the downloaded pages in the cache. Pages already cached uncompressed remain usable.
+     */
+    public boolean compressCache = false;
+
+    /**
+     * True to also cache the events parsed from each page, so that the pages that did not change are not parsed again
+     * when the scraper runs again with the same configuration.
+     */
+    public boolean cacheParsedPages = false;
+
+    /**
+     * Number of hours after which a cached page is checked again on the website.
+     * If null (the default), cached pages are reused forever.
+     */
+    public Integer cacheTtl;
+
+    /**
+     * Number of hours during which a page the website reported as missing is not requested again. Defaults to 168 (a
+     * week).
+     */
+    public Integer negativeCacheTtl;
+
+    /**
+     * The maximum number of pages downloaded at the same time.
+     * Only relevant if {@link #lookahead} is set.
+     */
+    public int parallelism = 1;
+
+    /**
+     * The maximum number of pages downloaded ahead of the page currently being parsed.
+     * If 0 (the default), pages are only downloaded when the parser reaches them.
+     */
+    public int lookahead = 0;
+
+    /**
+     * Maximum number of seconds to wait for a connection to the website. Defaults to 30.
+     */
+    public Integer connectTimeout;
+
+    /**
+     * Maximum number of seconds to wait for a page to be fully received once requested. Defaults to 120.
+     */
+    public Integer readTimeout;
+
+    /**
+     * Maximum number of attempts to download a page, including the first one. Defaults to 4.
+     */
+    public Integer maxAttempts;
+
+    /**
+     * Maximum number of seconds to wait before retrying a failed download. Defaults to 60.
+     * If the website asks to wait longer before retrying, the download fails.
+     */
+    public Integer maxBackoff;
+
+    /**
+     * Number of consecutive failed downloads from a website, each after all its attempts, after which downloads from
+     * this website are suspended. Defaults to 5.
+     */
+    public Integer breakerThreshold;
+
+    /**
+     * Number of seconds during which downloads from a failing website are suspended. Defaults to 60.
+     */
+    public Integer breakerCooldown;
+
+    /**
+     * Maximum number of pages requested per second from the website.
+     * If set, the actual rate and the number of pages downloaded at the same time start low, and adapt to how fast
+     * the website responds, up to this rate and {@link #parallelism}.
+     * If null (the default), pages are requested as soon as needed.
+     */
+    public Double maxRequestsPerSecond;
+
+    private RetryPolicy getRetryPolicy() {
+        return new RetryPolicy(
+                maxAttempts != null ? maxAttempts : RetryPolicy.DEFAULT_MAX_ATTEMPTS,
+                RetryPolicy.DEFAULT_INITIAL_BACKOFF,
+                maxBackoff != null ? Duration.ofSeconds(maxBackoff) : RetryPolicy.DEFAULT_MAX_BACKOFF,
+                breakerThreshold != null ? breakerThreshold : RetryPolicy.DEFAULT_BREAKER_THRESHOLD,
+                breakerCooldown != null ? Duration.ofSeconds(breakerCooldown) : RetryPolicy.DEFAULT_BREAKER_COOLDOWN
+        );
+    }
+
+    public HttpTransport getTransport() {
+        if(connectTimeout == null && readTimeout == null && maxAttempts == null && maxBackoff == null
+                && breakerThreshold == null && breakerCooldown == null && maxRequestsPerSecond == null) {
+            return HttpTransport.DEFAULT;
+        }
+        return new HttpTransport(
+                connectTimeout != null ? Duration.ofSeconds(connectTimeout) : HttpTransport.DEFAULT_CONNECT_TIMEOUT,
+                readTimeout != null ? Duration.ofSeconds(readTimeout) : HttpTransport.DEFAULT_READ_TIMEOUT,
+                getRetryPolicy(),
+                maxRequestsPerSecond != null ? new RateLimit(maxRequestsPerSecond, Math.max(parallelism, 1)) : null
+        );
+    }
+
+    private CacheStore getBaseCacheStore(Path cacheDirectory) throws IOException {
+        switch (cacheFormat) {
+            case PACK:
+                return new PackFileStore(cacheDirectory.resolve(PackFileStore.SUBDIRECTORY));
+            case FILES:
+            default:
+                return new LooseFileStore(cacheDirectory);
+        }
+    }
+
+    public CacheStore getCacheStore(Path cacheDirectory) throws IOException {
+        return new CompressingStore(getBaseCacheStore(cacheDirectory), compressCache);
+    }
+
+    /**
+     *
+     * @param cacheDirectory The cache directory of the scraper.
+     * @param downloader The downloader of the pages.
+     * @param configHash A hash of the scraper configuration.
+     * @return The cache of the events parsed from each page, or null if {@link #cacheParsedPages} is not set.
+     */
+    public ParsedPageCache getParsedPageCache(Path cacheDirectory, CachedDownloader downloader, String configHash)
+            throws IOException {
+        if(!cacheParsedPages) {
+            return null;
+        }
+        return new ParsedPageCache(getCacheStore(cacheDirectory.resolve(PARSED_PAGES_SUBDIRECTORY)), downloader,
+                configHash);
+    }
+
+    public CachedDownloader getDownloader(Path cacheDirectory) throws IOException {
+        CacheStore store = getCacheStore(cacheDirectory);
+        Duration timeToLive = cacheTtl != null ? Duration.ofHours(cacheTtl) : null;
+        Duration negativeTimeToLive = negativeCacheTtl != null
+                ? Duration.ofHours(negativeCacheTtl)
+                : CachedDownloader.DEFAULT_NEGATIVE_TIME_TO_LIVE;
+        if(lookahead > 0) {
+            return new PrefetchingDownloader(store, timeToLive, negativeTimeToLive, Math.max(parallelism, 1), lookahead);
+        }
+        return new CachedDownloader(store, timeToLive, negativeTimeToLive);
+    }
+}
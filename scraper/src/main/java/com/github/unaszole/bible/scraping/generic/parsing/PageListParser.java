@@ -4,13 +4,21 @@ import com.github.unaszole.bible.parsing.Context;
 import com.github.unaszole.bible.datamodel.ContextMetadata;
 import com.github.unaszole.bible.datamodel.ContextType;
 import com.github.unaszole.bible.downloading.CachedDownloader;
+import com.github.unaszole.bible.monitor.ExecutionMonitor;
 import com.github.unaszole.bible.parsing.Parser;
 import com.github.unaszole.bible.parsing.ParserCore;
 import com.github.unaszole.bible.scraping.generic.data.PageData;
+import com.github.unaszole.bible.stream.ContextEvent;
 import org.crosswire.jsword.versification.BibleBook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
 import java.util.Map;
@@ -18,30 +26,105 @@ import java.util.Optional;
 
 public class PageListParser implements ParserCore<PageData> {
 
+    private static final Logger LOG = LoggerFactory.getLogger(PageListParser.class);
+
     private final Map<String, TextParser> namedParsers;
     private final CachedDownloader cachedDownloader;
     private final Map<String, BibleBook> bookReferences;
+    private final ParsedPageCache parsedPageCache;
 
+    /**
+     *
+     * @param namedParsers The parsers to use for the pages, by name.
+     * @param cachedDownloader The downloader to fetch the pages.
+     * @param bookReferences The references to the books in the pages.
+     * @param parsedPageCache The cache of the events parsed from each page, or null to always parse the pages.
+     */
     public PageListParser(Map<String, TextParser> namedParsers, CachedDownloader cachedDownloader,
-                          Map<String, BibleBook> bookReferences) {
+                          Map<String, BibleBook> bookReferences, ParsedPageCache parsedPageCache) {
         this.namedParsers = namedParsers;
         this.cachedDownloader = cachedDownloader;
         this.bookReferences = bookReferences;
+        this.parsedPageCache = parsedPageCache;
+    }
+
+    public PageListParser(Map<String, TextParser> namedParsers, CachedDownloader cachedDownloader,
+                          Map<String, BibleBook> bookReferences) {
+        this(namedParsers, cachedDownloader, bookReferences, null);
+    }
+
+    private Parser<?> getLocalParser(PageData pageData, InputStream page, Deque<Context> currentContextStack) {
+        Parser<?> localParser = Optional.ofNullable(namedParsers.get(pageData.parserName))
+                .orElseThrow(() -> new RuntimeException("Could not find parser definition for " + pageData.parserName))
+                .getLocalParser(
+                        page,
+                        currentContextStack,
+                        new ContextualData(pageData.args, bookReferences, namedParsers, pageData.sourceFile.getBaseUri(), cachedDownloader)
+                );
+        localParser.setProfiledPageName(pageData.sourceFile.toString());
+        return localParser;
+    }
+
+    /**
+     *
+     * @return A parser replaying the events of the page from the cache, parsing the page first if it is not cached.
+     */
+    private Parser<?> getCachedParser(PageData pageData, Deque<Context> currentContextStack) throws IOException {
+        byte[] page;
+        try(InputStream in = cachedDownloader.openStream(pageData.sourceFile)) {
+            page = in.readAllBytes();
+        }
+
+        String key = parsedPageCache.getKey(page, pageData, currentContextStack);
+        Optional<ParsedPageCache.ParsedPage> cached = parsedPageCache.get(key);
+        if(cached.isPresent()) {
+            // The warnings of the page were only recorded when it was parsed : record them again.
+            cached.get().warnings.forEach(ExecutionMonitor.INSTANCE::message);
+            return new Parser.ReplayParser(cached.get().events.iterator(), currentContextStack);
+        }
+
+        // Parse the page from a copy of the stack, which the replay below then updates the same way.
+        List<ContextEvent> events = new ArrayList<>();
+        List<String> warnings = ExecutionMonitor.INSTANCE.captureMessages(() -> {
+            Parser<?> localParser = getLocalParser(pageData, new ByteArrayInputStream(page),
+                    new ArrayDeque<>(currentContextStack));
+            while(localParser.hasNext()) {
+                events.addAll(localParser.next());
+            }
+        });
+        parsedPageCache.put(key, new ParsedPageCache.ParsedPage(events, warnings));
+        return new Parser.ReplayParser(events.iterator(), currentContextStack);
+    }
+
+    /**
+     *
+     * @return A parser for a page that the website reported as missing : it has no contents.
+     */
+    private Parser<?> getMissingPageParser(PageData pageData, Deque<Context> currentContextStack) {
+        LOG.warn("Skipping missing page {}", pageData.sourceFile);
+        ExecutionMonitor.INSTANCE.message("Skipped missing page " + pageData.sourceFile);
+        return new Parser.ReplayParser(Collections.emptyIterator(), currentContextStack);
     }
 
     @Override
     public Parser<?> parseExternally(PageData pageData, Deque<Context> currentContextStack) {
+        if(cachedDownloader.isKnownEmpty(pageData.sourceFile)) {
+            // Already reported missing on a previous request : no need to request it again.
+            return getMissingPageParser(pageData, currentContextStack);
+        }
+
         // Each page data is parsed externally by a dedicated local parser.
         try {
-            return Optional.ofNullable(namedParsers.get(pageData.parserName))
-                    .orElseThrow(() -> new RuntimeException("Could not find parser definition for " + pageData.parserName))
-                    .getLocalParser(
-                            Files.newInputStream(cachedDownloader.getFile(pageData.sourceFile)),
-                            currentContextStack,
-                            new ContextualData(pageData.args, bookReferences, namedParsers, pageData.sourceFile.getBaseUri(), cachedDownloader)
-                    );
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            if(parsedPageCache != null) {
+                return getCachedParser(pageData, currentContextStack);
+            }
+            return getLocalParser(pageData, cachedDownloader.openStream(pageData.sourceFile), currentContextStack);
+        } catch (IOException | RuntimeException e) {
+            if(CachedDownloader.isMissing(e)) {
+                // A configuration may list pages that only some bibles have.
+                return getMissingPageParser(pageData, currentContextStack);
+            }
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
         }
     }
 
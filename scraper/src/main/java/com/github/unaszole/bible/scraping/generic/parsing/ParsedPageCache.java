@@ -0,0 +1,265 @@
+package com.github.unaszole.bible.scraping.generic.parsing;
+
+import com.github.unaszole.bible.downloading.CacheStore;
+import com.github.unaszole.bible.downloading.CachedDownloader;
+import com.github.unaszole.bible.downloading.DownloadedAttachment;
+import com.github.unaszole.bible.monitor.ExecutionMonitor;
+import com.github.unaszole.bible.parsing.Context;
+import com.github.unaszole.bible.parsing.Parser;
+import com.github.unaszole.bible.scraping.generic.data.PageData;
+import com.github.unaszole.bible.stream.ContextEvent;
+import com.github.unaszole.bible.stream.ContextEventCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the events parsed from each page, so that parsing a page again is replaced by replaying its events.
+ * <p>
+ * Entries are keyed by a hash of everything the parsing of a page depends on : the contents of the page, the
+ * configuration of the scraper, the parser and arguments used for the page, and the state of the contexts the page is
+ * parsed into, as well as a fingerprint of the scraper code itself. Any change to one of them leads to a new entry, so
+ * entries never need to be invalidated.
+ * <p>
+ * The warnings recorded while parsing a page are kept along with its events, and recorded again when they are
+ * replayed.
+ */
+public class ParsedPageCache implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParsedPageCache.class);
+
+    /**
+     * Version of the cached entries, to change whenever the parsing logic changes the events produced from the same
+     * inputs.
+     */
+    private static final String FORMAT_VERSION = "2";
+
+    /**
+     * The events parsed from a page, and the warnings recorded meanwhile.
+     */
+    public static class ParsedPage {
+        public final List<ContextEvent> events;
+        public final List<String> warnings;
+
+        public ParsedPage(List<ContextEvent> events, List<String> warnings) {
+            this.events = events;
+            this.warnings = warnings;
+        }
+    }
+
+    private static MessageDigest getMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        Formatter formatter = new Formatter();
+        for (byte b : digest) {
+            formatter.format("%02x", b);
+        }
+        return formatter.toString();
+    }
+
+    /**
+     *
+     * @param data The data to hash.
+     * @return A hexadecimal SHA-256 hash of the data.
+     */
+    public static String hash(byte[] data) {
+        // MessageDigest instances are not thread-safe : use a new one for each computation.
+        return toHex(getMessageDigest().digest(data));
+    }
+
+    private static String buildFingerprint = null;
+
+    /**
+     *
+     * @param location The location of compiled classes : a jar file, or a directory of class files.
+     * @param digest The digest to update with the contents of the location.
+     */
+    private static void digestCodeSource(Path location, MessageDigest digest) throws IOException {
+        if(!Files.isDirectory(location)) {
+            try(InputStream in = new DigestInputStream(Files.newInputStream(location), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            return;
+        }
+        List<Path> files;
+        try(Stream<Path> paths = Files.walk(location)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for(Path file: files) {
+            digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(file));
+        }
+    }
+
+    /**
+     *
+     * @return A fingerprint of the code that parses the pages (the scraper and the parser libraries), so that events
+     * parsed by another build are not replayed.
+     */
+    static synchronized String getBuildFingerprint() {
+        if(buildFingerprint == null) {
+            MessageDigest digest = getMessageDigest();
+            try {
+                // Both may be loaded from the same jar, which is then hashed once.
+                Set<Path> locations = new TreeSet<>();
+                for(Class<?> codeClass: List.of(ParsedPageCache.class, Parser.class)) {
+                    locations.add(Path.of(codeClass.getProtectionDomain().getCodeSource().getLocation().toURI()));
+                }
+                for(Path location: locations) {
+                    digestCodeSource(location, digest);
+                }
+                buildFingerprint = toHex(digest.digest());
+            }
+            catch (IOException | URISyntaxException | RuntimeException e) {
+                // Without a fingerprint, entries may only be replayed within this run.
+                LOG.warn("Could not fingerprint the scraper code, parsed pages will not be reused by later runs", e);
+                buildFingerprint = UUID.randomUUID().toString();
+            }
+        }
+        return buildFingerprint;
+    }
+
+    private final CacheStore store;
+    private final CachedDownloader downloader;
+    private final String configHash;
+
+    /**
+     *
+     * @param store The store in which to keep the parsed events.
+     * @param downloader The downloader from which attachments of the replayed events are downloaded.
+     * @param configHash A hash of the scraper configuration, and of anything else the parsing depends on besides the
+     *                   page itself.
+     */
+    public ParsedPageCache(CacheStore store, CachedDownloader downloader, String configHash) {
+        this.store = store;
+        this.downloader = downloader;
+        this.configHash = configHash;
+    }
+
+    /**
+     *
+     * @param page The contents of the page.
+     * @param pageData The page to parse.
+     * @param currentContextStack The context stack the page is parsed into.
+     * @return The key of the events parsed from this page.
+     */
+    public String getKey(byte[] page, PageData pageData, Deque<Context> currentContextStack) {
+        MessageDigest digest = getMessageDigest();
+        String header = FORMAT_VERSION + "\n"
+                + getBuildFingerprint() + "\n"
+                + configHash + "\n"
+                + pageData.sourceFile.getHash() + "\n"
+                + pageData.parserName + "\n"
+                + new TreeMap<>(Optional.ofNullable(pageData.args).orElse(Map.of())) + "\n"
+                + currentContextStack.stream().map(Context::describeParsingState).collect(Collectors.joining("\n"))
+                + "\n";
+        digest.update(header.getBytes(StandardCharsets.UTF_8));
+        digest.update(page);
+        return toHex(digest.digest());
+    }
+
+    private DownloadedAttachment resolveAttachment(String reference) {
+        try {
+            return new DownloadedAttachment(downloader, new URL(reference));
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @param key The key of the events parsed from a page.
+     * @return The events parsed from this page and the warnings recorded meanwhile, or an empty optional if they are
+     * not cached.
+     */
+    public Optional<ParsedPage> get(String key) {
+        if(!store.contains(key)) {
+            return Optional.empty();
+        }
+        try(DataInputStream in = new DataInputStream(store.open(key))) {
+            // The warnings come first, followed by the events.
+            int nbWarnings = in.readInt();
+            List<String> warnings = new ArrayList<>(nbWarnings);
+            for(int i = 0; i < nbWarnings; i++) {
+                warnings.add(in.readUTF());
+            }
+            List<ContextEvent> events = new ArrayList<>();
+            try(ContextEventCodec.Reader reader = new ContextEventCodec.Reader(in, this::resolveAttachment)) {
+                reader.forEachRemaining(events::add);
+            }
+            ExecutionMonitor.INSTANCE.count("Parsed pages replayed", 1);
+            return Optional.of(new ParsedPage(events, warnings));
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable parsed page {}", key, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Store the events parsed from a page. Failing to store them only means that the page will be parsed again.
+     * @param key The key of the events parsed from a page.
+     * @param parsedPage The events parsed from this page, and the warnings recorded meanwhile.
+     */
+    public void put(String key, ParsedPage parsedPage) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(parsedPage.warnings.size());
+            for(String warning: parsedPage.warnings) {
+                header.writeUTF(warning);
+            }
+            header.flush();
+            ContextEventCodec.write(parsedPage.events.stream(), out, a -> {
+                if(!(a instanceof DownloadedAttachment)) {
+                    throw new IllegalArgumentException("Cannot reference attachment " + a.getName());
+                }
+                return ((DownloadedAttachment) a).getUrl().toString();
+            });
+            store.store(key, new ByteArrayInputStream(out.toByteArray()));
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.warn("Could not cache parsed page {}", key, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
@@ -11,6 +11,7 @@ import com.github.unaszole.bible.writing.datamodel.DocumentMetadata;
 import com.github.unaszole.bible.downloading.CachedDownloader;
 import com.github.unaszole.bible.parsing.Parser;
 import com.github.unaszole.bible.parsing.PositionBufferedParserCore;
+import com.github.unaszole.bible.stream.ContextEvent;
 import com.github.unaszole.bible.stream.ContextStream;
 import com.github.unaszole.bible.scraping.*;
 import com.github.unaszole.bible.stream.ContextStreamEditor;
@@ -21,11 +22,15 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Evaluator;
 import org.jsoup.select.QueryParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -36,6 +41,8 @@ import static com.github.unaszole.bible.parsing.ContextReaderListBuilder.context
 
 public class ChouraquiSpiritualLand extends Scraper {
 
+	private static final Logger LOG = LoggerFactory.getLogger(ChouraquiSpiritualLand.class);
+
 	public static Help getHelp(String[] inputs) {
 		return new Help("Bible d'André Chouraqui (spiritualland.org)", List.of(
 				Map.entry("variant (optional)", "Variante de versification. " +
@@ -378,10 +385,13 @@ public class ChouraquiSpiritualLand extends Scraper {
 	}
 	
 	private final CachedDownloader downloader;
+	private final Path indexDirectory;
+	private final Map<BibleBook, PageIndex> pageIndexes = new ConcurrentHashMap<>();
 	private final Variant variant;
 	
 	public ChouraquiSpiritualLand(Path cachePath, String[] inputs) throws IOException {
 		this.downloader = new CachedDownloader(cachePath.resolve("ChouraquiSpiritualLand"));
+		this.indexDirectory = cachePath.resolve("ChouraquiSpiritualLand").resolve("index");
 		if(inputs.length >= 1 && Objects.equals(inputs[0], "Catholic")) {
 			this.variant = new CatholicVariant();
 		}
@@ -391,27 +401,40 @@ public class ChouraquiSpiritualLand extends Scraper {
 	}
 	
 	private Document getDoc(URL url) {
-		try {
-			return Jsoup.parse(downloader.getFile(url).toFile());
+		try(InputStream in = downloader.openStream(url)) {
+			return Jsoup.parse(in, null, url.toString());
 		}
 		catch(IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
-	private Stream<Element> getDocStream(BibleBook book) {
-		return StreamUtils.concatStreams(getPageUrls(book).stream()
-				.map(url -> StreamUtils.deferredStream(
-						() -> getDoc(url).stream()
-				))
-				.collect(Collectors.toList())
-		);
+	/**
+	 *
+	 * @param urls The pages to read, in order.
+	 * @param recorder The recorder to notify of each page read, or null.
+	 * @return The stream of elements of these pages.
+	 */
+	private Stream<Element> getDocStream(List<URL> urls, PageIndex.Recorder recorder) {
+		List<Stream<Element>> pages = new ArrayList<>();
+		for(int i = 0; i < urls.size(); i++) {
+			final int pageNb = i;
+			final URL url = urls.get(i);
+			pages.add(StreamUtils.deferredStream(() -> {
+				if(recorder != null) {
+					recorder.enterPage(pageNb);
+				}
+				return getDoc(url).stream();
+			}));
+		}
+		return StreamUtils.concatStreams(pages);
 	}
 
 	private interface Variant {
 		String getRefSystem();
 		BibleBook getMappedBook(BibleBook books);
 		ContextStreamEditor<ContextStream.Single> editBook(BibleBook book, ContextStreamEditor<ContextStream.Single> editor);
+		boolean editsBook(BibleBook book);
 	}
 
 	private static class DefaultVariant implements Variant {
@@ -431,6 +454,11 @@ public class ChouraquiSpiritualLand extends Scraper {
 			// No change.
 			return editor;
 		}
+
+		@Override
+		public boolean editsBook(BibleBook book) {
+			return false;
+		}
 	}
 
 	private class CatholicVariant implements Variant {
@@ -525,19 +553,66 @@ public class ChouraquiSpiritualLand extends Scraper {
 
 			return editor;
 		}
+
+		@Override
+		public boolean editsBook(BibleBook book) {
+			return book == BibleBook.DAN || book == BibleBook.ESTH_GR;
+		}
 	}
 
 	public List<BibleBook> getBookList() {
 		return new ArrayList<>(BOOKS.keySet());
 	}
 
-	private ContextStream.Single getBookStream(BibleBook book) {
+	private PageIndex getPageIndex(BibleBook book) {
+		return pageIndexes.computeIfAbsent(book, b -> new PageIndex(
+				indexDirectory.resolve(b.getOSIS() + ".properties"),
+				getPageUrls(b).stream().map(URL::toString).collect(Collectors.toList()),
+				BibleContainers.CHAPTER
+		));
+	}
+
+	private ContextStream.Single parseBook(BibleBook book, List<URL> urls, PageIndex.Recorder recorder) {
 		Context bookCtx = new Context(ScrapingUtils.forBook(book), book.getOSIS());
+		ContextStream.Single bookStream = new Parser.TerminalParser<>(new ElementParser(),
+				getDocStream(urls, recorder).iterator(), bookCtx).asContextStream();
+		return recorder != null ? recorder.record(bookStream) : bookStream;
+	}
+
+	private ContextStream.Single getBookStream(BibleBook book) {
 		return variant.editBook(book,
-				new Parser.TerminalParser<>(new ElementParser(), getDocStream(book).iterator(), bookCtx).asContextStream().edit()
+				parseBook(book, getPageUrls(book), getPageIndex(book).newRecorder()).edit()
 		).process();
 	}
 
+	/**
+	 *
+	 * @param chapterMeta The metadata of a chapter.
+	 * @return A stream parsing only the pages containing this chapter, or null if they are not known yet.
+	 */
+	private ContextStream.Single getChapterStream(ContextMetadata chapterMeta) {
+		BibleBook book = chapterMeta.id.get(BibleIdFields.BOOK);
+		if(variant.getMappedBook(book) != book || variant.editsBook(book)) {
+			// The variant changes the contents of the book : extract the chapter from the whole book.
+			return null;
+		}
+		Optional<PageIndex.Range> pages = getPageIndex(book).getPages(chapterMeta);
+		if(pages.isEmpty()) {
+			return null;
+		}
+
+		List<URL> urls = getPageUrls(book).subList(pages.get().first, pages.get().last + 1);
+		return new ContextStream.Single(chapterMeta, StreamUtils.deferredStream(() -> {
+			Iterator<ContextEvent> events = parseBook(book, urls, null).extractStream(chapterMeta).getStream().iterator();
+			if(events.hasNext()) {
+				return StreamUtils.toStream(events);
+			}
+			// Chapter not found in the indexed pages : fall back to the whole book.
+			LOG.warn("{} not found in pages {} of {}, parsing the whole book", chapterMeta, pages.get(), book);
+			return getBookStream(book).extractStream(chapterMeta).getStream();
+		}));
+	}
+
 	@Override
 	public DocumentMetadata getMeta() {
 		return new DocumentMetadata(Locale.FRENCH, "freCHUsl", "Bible d'André Chouraqui", variant.getRefSystem());
@@ -563,6 +638,8 @@ public class ChouraquiSpiritualLand extends Scraper {
 						return getBookStream(rootContextMeta.id.get(BibleIdFields.BOOK));
 					}
 				}
+			case CHAPTER:
+				return getChapterStream(rootContextMeta);
 			case BIBLE:
 				return autoGetBibleStream(getBookList());
 		}
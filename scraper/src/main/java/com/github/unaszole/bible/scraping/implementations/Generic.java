@@ -10,18 +10,23 @@ import com.github.unaszole.bible.parsing.Parser;
 import com.github.unaszole.bible.scraping.generic.Config;
 import com.github.unaszole.bible.scraping.generic.data.*;
 import com.github.unaszole.bible.scraping.generic.parsing.PageListParser;
+import com.github.unaszole.bible.scraping.generic.parsing.ParsedPageCache;
 import com.github.unaszole.bible.writing.datamodel.DocumentMetadata;
 import com.github.unaszole.bible.downloading.CachedDownloader;
 import com.github.unaszole.bible.downloading.HttpSourceFile;
+import com.github.unaszole.bible.downloading.HttpTransport;
+import com.github.unaszole.bible.downloading.SourceFile;
 import com.github.unaszole.bible.scraping.Scraper;
 import com.github.unaszole.bible.stream.ContextStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 public class Generic extends Scraper {
@@ -65,19 +70,26 @@ public class Generic extends Scraper {
 
     }
 
-    private static Config getConfig(String flag) throws IOException {
+    private static byte[] readConfig(String flag) throws IOException {
         // If the flag is the path to an existing file, use it.
         File configFile = new File(flag);
         if(configFile.exists()) {
-            return Config.parse(Files.newInputStream(configFile.toPath()));
+            return Files.readAllBytes(configFile.toPath());
         }
 
         // Else, try to load one from the embedded resources.
         try(InputStream is = Generic.class.getResourceAsStream("/scrapers/Generic/" + flag + ".yaml")) {
-            return Config.parse(is);
+            if(is == null) {
+                throw new FileNotFoundException("No generic scraper configuration " + flag);
+            }
+            return is.readAllBytes();
         }
     }
 
+    private static Config getConfig(String flag) throws IOException {
+        return Config.parse(new ByteArrayInputStream(readConfig(flag)));
+    }
+
     private static Path getCacheSubPath(Path cachePath, String[] flags) {
         Path outPath = cachePath.resolve("Generic");
 
@@ -97,13 +109,22 @@ public class Generic extends Scraper {
     }
 
     private final CachedDownloader downloader;
+    private final ParsedPageCache parsedPageCache;
+    private final HttpTransport transport;
     private final Config config;
     private final List<String> flagValues;
 
     public Generic(Path cachePath, String[] inputs) throws IOException {
         this.flagValues = Arrays.stream(inputs).skip(1).collect(Collectors.toList());
-        this.config = getConfig(inputs[0]);
-        this.downloader = new CachedDownloader(getCacheSubPath(cachePath, inputs));
+        byte[] rawConfig = readConfig(inputs[0]);
+        this.config = Config.parse(new ByteArrayInputStream(rawConfig));
+        Path cacheSubPath = getCacheSubPath(cachePath, inputs);
+        this.downloader = config.download.getDownloader(cacheSubPath);
+        this.transport = config.download.getTransport();
+        // Parsed pages depend on the configuration and on the flag values it refers to.
+        this.parsedPageCache = config.download.getParsedPageCache(cacheSubPath, downloader,
+                ParsedPageCache.hash((new String(rawConfig, StandardCharsets.UTF_8) + "\n" + flagValues)
+                        .getBytes(StandardCharsets.UTF_8)));
     }
 
     private static class NotifyingIterator<T> implements Iterator<T> {
@@ -141,6 +162,13 @@ public class Generic extends Scraper {
     }
 
     private ContextStream.Single contextStreamer(Context ctx, List<PageData> pages) {
+        // Contexts are streamed in document order : let the downloader know these pages will come next.
+        // Pages known to be missing are skipped by the parser, so they will not be requested.
+        downloader.announce(pages.stream()
+                .map(p -> p.sourceFile)
+                .filter(f -> !downloader.isKnownEmpty(f))
+                .collect(Collectors.toList()));
+
         final ExecutionMonitor.Item statusItem = ExecutionMonitor.INSTANCE.register(ctx.metadata.id.toString());
         return new Parser.TerminalParser<>(
                 new PageListParser(
@@ -149,7 +177,7 @@ public class Generic extends Scraper {
                                         p -> Optional.ofNullable(p.id).orElse("main"),
                                         p -> p
                                 )),
-                        downloader, config.bible.getBookReferences()
+                        downloader, config.bible.getBookReferences(), parsedPageCache
                 ),
                 new NotifyingIterator<>(pages.iterator(), statusItem::start, statusItem::complete),
                 ctx
@@ -167,6 +195,39 @@ public class Generic extends Scraper {
 
     @Override
     protected ContextStream.Single getContextStreamFor(final ContextMetadata rootContextMeta) {
+        return getContextStreamFor(rootContextMeta, this::contextStreamer);
+    }
+
+    @Override
+    protected CachedDownloader getDownloader() {
+        return downloader;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        }
+        finally {
+            if(parsedPageCache != null) {
+                parsedPageCache.close();
+            }
+        }
+    }
+
+    @Override
+    protected List<SourceFile> getSourceFilesFor(ContextMetadata rootContextMeta) {
+        // Build the context stream with a streamer which only collects the pages : nothing is fetched nor parsed.
+        List<SourceFile> sourceFiles = new ArrayList<>();
+        ContextStream.Single contextStream = getContextStreamFor(rootContextMeta, (ctx, pages) -> {
+            pages.forEach(p -> sourceFiles.add(p.sourceFile));
+            return ContextStream.fromContents(ctx, List.of());
+        });
+        return contextStream != null ? sourceFiles : null;
+    }
+
+    private ContextStream.Single getContextStreamFor(final ContextMetadata rootContextMeta,
+                                                     final BiFunction<Context, List<PageData>, ContextStream.Single> ctxStreamer) {
         Book book;
         ChapterSeq seq;
         switch ((BibleContainers) rootContextMeta.type) {
@@ -183,7 +244,7 @@ public class Generic extends Scraper {
 
                 // Stream the requested chapter.
                 return seq.streamChapter(book.defaultedBy(config.bible.defaultedBy(globalDefaults())), rootContextMeta,
-                        new HttpSourceFile.Builder(), this::contextStreamer);
+                        new HttpSourceFile.Builder(transport), ctxStreamer);
 
             case BOOK:
                 // Fetch book. If we can't find it, nothing to load, return null.
@@ -194,11 +255,11 @@ public class Generic extends Scraper {
 
                 // Stream the requested book.
                 return book.streamBook(config.bible.defaultedBy(globalDefaults()), rootContextMeta,
-                        new HttpSourceFile.Builder(), this::contextStreamer);
+                        new HttpSourceFile.Builder(transport), ctxStreamer);
 
             case BIBLE:
                 return config.bible.streamBible(globalDefaults(), rootContextMeta,
-                        new HttpSourceFile.Builder(), this::contextStreamer);
+                        new HttpSourceFile.Builder(transport), ctxStreamer);
         }
 
         return null;
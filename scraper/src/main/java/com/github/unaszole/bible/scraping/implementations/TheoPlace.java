@@ -9,6 +9,8 @@ import com.github.unaszole.bible.datamodel.ContextMetadata;
 import com.github.unaszole.bible.datamodel.ContextType;
 import com.github.unaszole.bible.writing.datamodel.DocumentMetadata;
 import com.github.unaszole.bible.downloading.CachedDownloader;
+import com.github.unaszole.bible.downloading.HttpSourceFile;
+import com.github.unaszole.bible.downloading.SourceFile;
 import com.github.unaszole.bible.parsing.ContextReaderListBuilder;
 import com.github.unaszole.bible.parsing.Parser;
 import com.github.unaszole.bible.parsing.PositionBufferedParserCore;
@@ -26,6 +28,8 @@ import org.jsoup.select.Evaluator;
 import org.jsoup.select.QueryParser;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.util.*;
@@ -259,8 +263,17 @@ public class TheoPlace extends Scraper {
         // context stream.
         return new ContextStream.Single(rootContext.metadata, StreamUtils.deferredStream(() -> {
             try {
-                Document doc = Jsoup.parse(downloader.getFile(new URL(url)).toFile());
+                SourceFile page = new HttpSourceFile(new URL(url));
+                if(downloader.isKnownEmpty(page)) {
+                    // Already checked on a previous run : no need to fetch it again.
+                    return Stream.of();
+                }
+                Document doc;
+                try(InputStream in = downloader.openStream(page)) {
+                    doc = Jsoup.parse(in, null, url);
+                }
                 if(!doc.select("h3:contains(Livre ou chapitre inexistant)").isEmpty()) {
+                    downloader.markEmpty(page);
                     return Stream.of();
                 }
                 return new Parser.TerminalParser<>(new PageParser(), doc.stream().iterator(), rootContext)
@@ -278,6 +291,47 @@ public class TheoPlace extends Scraper {
                 bible.toUpperCase() + " extraite de TheoPlace", "Bible");
     }
 
+    private static SourceFile toSourceFile(String url) {
+        try {
+            return new HttpSourceFile(new URL(url));
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected CachedDownloader getDownloader() {
+        return downloader;
+    }
+
+    @Override
+    protected List<SourceFile> getSourceFilesFor(ContextMetadata rootContextMeta) {
+        List<SourceFile> sourceFiles = new ArrayList<>();
+        switch((BibleContainers) rootContextMeta.type) {
+            case CHAPTER:
+                BibleBook chapterBook = rootContextMeta.id.get(BibleIdFields.BOOK);
+                int chapterNb = rootContextMeta.id.get(BibleIdFields.CHAPTER);
+                sourceFiles.add(toSourceFile(BOOKS.get(chapterBook).getChapterUrl(bible, chapterNb)));
+                return sourceFiles;
+
+            case BOOK:
+                BibleBook bookId = rootContextMeta.id.get(BibleIdFields.BOOK);
+                BookRef bookRef = BOOKS.get(bookId);
+                sourceFiles.add(toSourceFile(bookRef.getBookIntroUrl(bible)));
+                for(int i = 1; i <= bookRef.nbChapters; i++) {
+                    sourceFiles.add(toSourceFile(bookRef.getChapterUrl(bible, i)));
+                }
+                return sourceFiles;
+
+            case BIBLE:
+                for(BibleBook book: BOOKS.keySet()) {
+                    sourceFiles.addAll(getSourceFilesFor(ScrapingUtils.forBook(book)));
+                }
+                return sourceFiles;
+        }
+        return null;
+    }
+
     @Override
     public ContextStream.Single getContextStreamFor(ContextMetadata rootContextMeta) {
         BookRef bookRef;